@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+/**
+ * Isolates a failing device. After a number of consecutive failures the breaker opens and rejects all calls.
+ * Once the open period has passed, a single probe call is let through (half open): if it succeeds the breaker closes again, otherwise it reopens.
+ * The breaker is thread-safe and can be shared by all threads that use a device.
+ */
+public class MonkeyCircuitBreaker {
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean probing = false;
+
+    /**
+     * Creates a circuit breaker.
+     * @param failureThreshold The number of consecutive failures after which the breaker opens.
+     * @param openDuration The number of milliseconds the breaker stays open before it lets a probe call through.
+     */
+    public MonkeyCircuitBreaker(int failureThreshold, long openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be positive");
+        }
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("Open duration must not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration * 1000000L;
+    }
+
+    /**
+     * Returns whether a call may proceed. In the half open state only one call is let through until its outcome is recorded.
+     * @return Boolean true if the call may proceed.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Records a successful call and closes the breaker.
+     */
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    /**
+     * Records a failed call. Opens the breaker if the threshold is reached or the probe call of the half open state failed.
+     */
+    public synchronized void recordFailure() {
+        probing = false;
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records a call whose outcome says nothing about the device, e.g. because it was interrupted. Lets another probe call through in the half open state.
+     */
+    public synchronized void release() {
+        probing = false;
+    }
+
+    /**
+     * Closes the breaker and forgets all failures.
+     */
+    public synchronized void reset() {
+        recordSuccess();
+    }
+
+    /**
+     * Returns the current state of the breaker.
+     * @return The state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+}
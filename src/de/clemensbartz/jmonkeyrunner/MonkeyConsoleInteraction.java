@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Answers prompts on a text console. Prompts from different threads are queued fairly, one at a time,
+ * because they share the console; threads that do not prompt are never held up.
+ */
+public class MonkeyConsoleInteraction implements MonkeyInteraction {
+    private final ReentrantLock console = new ReentrantLock(true);
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    /**
+     * Creates an interaction on System.in and System.out.
+     */
+    public MonkeyConsoleInteraction() {
+        this(System.in, System.out);
+    }
+
+    /**
+     * Creates an interaction on the given streams.
+     * @param in The stream to read answers from.
+     * @param out The stream to print prompts to.
+     */
+    public MonkeyConsoleInteraction(InputStream in, PrintStream out) {
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.out = out;
+    }
+
+    @Override
+    public void alert(String message, String title, String okTitle) {
+        console.lock();
+        try {
+            out.println("[" + title + "] " + message);
+            out.print("Press Enter for " + okTitle + " ");
+            out.flush();
+            readLine();
+        } finally {
+            console.unlock();
+        }
+    }
+
+    @Override
+    public int choice(String message, Collection<String> choices, String title) {
+        console.lock();
+        try {
+            out.println("[" + title + "] " + message);
+            int number = 1;
+            for (String choice : choices) {
+                out.println("  " + number++ + ") " + choice);
+            }
+            out.print("Enter a number, or nothing to cancel: ");
+            out.flush();
+            String line = readLine();
+            if (line == null || line.trim().length() == 0) {
+                return -1;
+            }
+            try {
+                int index = Integer.parseInt(line.trim()) - 1;
+                return (index >= 0 && index < choices.size()) ? index : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        } finally {
+            console.unlock();
+        }
+    }
+
+    @Override
+    public String input(String message, String initialValue, String title, String okTitle, String cancelTitle) {
+        console.lock();
+        try {
+            out.println("[" + title + "] " + message);
+            out.print("Enter a value for " + okTitle + " (" + initialValue + " if empty, end of input for " + cancelTitle + "): ");
+            out.flush();
+            String line = readLine();
+            if (line == null) {
+                return "";
+            }
+            return line.length() == 0 && initialValue != null ? initialValue : line;
+        } finally {
+            console.unlock();
+        }
+    }
+
+    private String readLine() {
+        try {
+            return in.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -21,17 +21,45 @@ import de.clemensbartz.chattychimpchat.core.IChimpDevice;
 import de.clemensbartz.chattychimpchat.core.PhysicalButton;
 import de.clemensbartz.chattychimpchat.core.TouchPressType;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
 
 /**
  * Created by clemens on 01.11.14.
  */
 public class MonkeyDevice {
+    private static final ExecutorService TIMEOUT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MonkeyDevice-operation");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // What the shell and the input command print when text could not be injected, e.g. "input: not found" or a SecurityException
+    private static final Pattern INPUT_ERROR = Pattern.compile("(?i)exception|error|not found|permission denied|usage:");
+
     private IChimpDevice device;
+    private volatile MonkeyCircuitBreaker circuitBreaker;
+    private volatile MonkeyRateLimiter rateLimiter;
+    private volatile long operationTimeout = 0;
 
     public MonkeyDevice(IChimpDevice device) throws MonkeyException {
         if (!isDeviceValid(device)) {
-            throw new MonkeyException("Device is not valid");
+            throw new MonkeyDisconnectedException("Device is not valid");
         }
         this.device = device;
     }
@@ -48,23 +76,21 @@ public class MonkeyDevice {
      * @param component The component for this Intent (see ComponentName). Using this argument will direct the Intent to a specific class within a specific Android package.
      * @param flags An iterable data structure containing flags that control how the Intent is handled (see Intent.setFlags()).
      */
-    public void broadcastIntent(@com.android.annotations.Nullable String uri,
-                                @com.android.annotations.Nullable String action,
-                                @com.android.annotations.Nullable String data,
-                                @com.android.annotations.Nullable String mimetype,
-                                java.util.Collection<String> categories,
-                                Map<String,Object> extras,
-                                @com.android.annotations.Nullable String component,
-                                int flags) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.broadcastIntent(uri, action, data, mimetype, categories, extras, component, flags);
-        }
-        catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void broadcastIntent(@com.android.annotations.Nullable final String uri,
+                                @com.android.annotations.Nullable final String action,
+                                @com.android.annotations.Nullable final String data,
+                                @com.android.annotations.Nullable final String mimetype,
+                                final java.util.Collection<String> categories,
+                                final Map<String,Object> extras,
+                                @com.android.annotations.Nullable final String component,
+                                final int flags) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.broadcastIntent(uri, action, data, mimetype, categories, extras, component, flags);
+                return null;
+            }
+        });
     }
 
     /**
@@ -73,19 +99,18 @@ public class MonkeyDevice {
      * @param startY The y starting point of the drag gesture
      * @param endX The x end point of the drag gesture
      * @param endY The y end point of the drag gesture
-     * @param duration The duration of the drag gesture in seconds. The default is 1.0 seconds.
+     * @param duration The duration of the drag gesture in milliseconds. The default is 1000 milliseconds.
      * @param steps The number of steps to take when interpolating points. The default is 10.
      * @throws MonkeyException
      */
-    public void drag(int startX, int startY, int endX, int endY, long duration, int steps) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.drag(startX, startY, endX, endY, steps, duration);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void drag(final int startX, final int startY, final int endX, final int endY, final long duration, final int steps) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.drag(startX, startY, endX, endY, steps, duration);
+                return null;
+            }
+        });
     }
 
     /**
@@ -98,7 +123,7 @@ public class MonkeyDevice {
      * @throws MonkeyException
      */
     public void drag(int startX, int startY, int endX, int endY, int steps) throws MonkeyException {
-        this.drag(startX, startY, endX, endY, (long) 1.0, steps);
+        this.drag(startX, startY, endX, endY, 1000L, steps);
     }
 
     /**
@@ -107,7 +132,7 @@ public class MonkeyDevice {
      * @param startY The y starting point of the drag gesture
      * @param endX The x end point of the drag gesture
      * @param endY The y end point of the drag gesture
-     * @param duration The duration of the drag gesture in seconds. The default is 1.0 seconds.
+     * @param duration The duration of the drag gesture in milliseconds. The default is 1000 milliseconds.
      * @throws MonkeyException
      */
     public void drag(int startX, int startY, int endX, int endY, long duration) throws MonkeyException{
@@ -123,26 +148,124 @@ public class MonkeyDevice {
      * @throws MonkeyException
      */
     public void drag(int startX, int startY, int endX, int endY) throws MonkeyException{
-        this.drag(startX, startY, endX, endY, (long) 1.0, 10);
+        this.drag(startX, startY, endX, endY, 1000L, 10);
     }
 
     /**
-     * Given the name of a system environment variable, returns its value for this device.
-     * @param key The name of the system environment variable. The available variable names are listed in Table 1. Property variable names at the end of this topic.
-     * @return The value of the variable. The data format varies according to the variable requested.
+     * Performs a gesture with MOVE events every 10 milliseconds.
+     * @param gesture The gesture.
+     * @return The timing that was actually achieved.
      * @throws MonkeyException
      */
-    public String getProperty(String key) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
+    public MonkeyGestureResult perform(MonkeyGesture gesture) throws MonkeyException {
+        return perform(gesture, 10);
+    }
+
+    /**
+     * Performs a gesture. The whole gesture is compiled into DOWN, MOVE and UP events up front and sent as one operation,
+     * each event at its scheduled time. MOVE events the device has fallen behind on are dropped so the gesture keeps its duration.
+     * If the operation times out or the thread is interrupted, the gesture is aborted and the touch is released.
+     * With a rate limiter, every event takes a permit; MOVE events that find no permit are dropped as well.
+     * @param gesture The gesture.
+     * @param interval The time between two MOVE events in milliseconds.
+     * @return The timing that was actually achieved.
+     * @throws MonkeyException
+     */
+    public MonkeyGestureResult perform(final MonkeyGesture gesture, long interval) throws MonkeyException {
+        final List<MonkeyGesture.Event> events;
         try {
-            return device.getProperty(key);
+            events = gesture.compile(interval);
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
+        }
+        return execute(new Callable<MonkeyGestureResult>() {
+            @Override
+            public MonkeyGestureResult call() throws Exception {
+                return dispatch(events, gesture.getDuration());
+            }
+        });
+    }
+
+    private MonkeyGestureResult dispatch(List<MonkeyGesture.Event> events, long plannedDuration) throws Exception {
+        int sent = 0;
+        int skipped = 0;
+        long maxLateness = 0;
+        long totalLateness = 0;
+        long start = System.nanoTime();
+        MonkeyGesture.Event last = null;
+        MonkeyRateLimiter limiter = this.rateLimiter;
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                checkInterrupted();
+                MonkeyGesture.Event event = events.get(i);
+                long deadline = start + event.time * 1000000L;
+                long now = System.nanoTime();
+                if (event.type == TouchPressType.MOVE && i + 1 < events.size()
+                        && events.get(i + 1).type == TouchPressType.MOVE
+                        && now >= start + events.get(i + 1).time * 1000000L) {
+                    // Already late for the next position as well, jump straight there
+                    skipped++;
+                    continue;
+                }
+                while (now < deadline) {
+                    LockSupport.parkNanos(deadline - now);
+                    // parkNanos returns at once while the interrupt flag is set, e.g. after the operation timed out
+                    checkInterrupted();
+                    now = System.nanoTime();
+                }
+                if (limiter != null) {
+                    if (event.type == TouchPressType.MOVE) {
+                        if (!limiter.tryAcquire()) {
+                            // Over the rate, drop the position instead of falling behind
+                            skipped++;
+                            continue;
+                        }
+                    } else {
+                        limiter.acquire();
+                        now = System.nanoTime();
+                    }
+                }
+                device.touch(event.x, event.y, event.type);
+                last = event;
+                sent++;
+                long lateness = now - deadline;
+                maxLateness = Math.max(maxLateness, lateness);
+                totalLateness += lateness;
+            }
+        } finally {
+            if (last != null && last.type != TouchPressType.UP) {
+                // Do not leave the finger on the screen
+                try {
+                    device.touch(last.x, last.y, TouchPressType.UP);
+                } catch (Exception e) {
+                    // The original failure is more interesting
+                }
+            }
+        }
+        return new MonkeyGestureResult(sent, skipped, plannedDuration, System.nanoTime() - start, maxLateness, totalLateness);
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Gesture was interrupted");
         }
     }
 
+    /**
+     * Given the name of a system environment variable, returns its value for this device.
+     * @param key The name of the system environment variable. The available variable names are listed in Table 1. Property variable names at the end of this topic.
+     * @return The value of the variable. The data format varies according to the variable requested.
+     * @throws MonkeyException
+     */
+    public String getProperty(final String key) throws MonkeyException {
+        return execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return device.getProperty(key);
+            }
+        });
+    }
+
     /**
      * Synonym for getProperty().
      * @param key
@@ -157,15 +280,14 @@ public class MonkeyDevice {
      * Installs the Android application or test package contained in packageFile onto this device. If the application or test package is already installed, it is replaced.
      * @param path The fully-qualified path and filename of the .apk file to install.
      */
-    public void installPackage(String path) throws MonkeyException{
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.installPackage(path);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void installPackage(final String path) throws MonkeyException{
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.installPackage(path);
+                return null;
+            }
+        });
     }
 
     /**
@@ -175,15 +297,13 @@ public class MonkeyDevice {
      * @param args A dictionary containing flags and their values. These are passed to the component as it is started. If the flag does not take a value, set its dictionary value to an empty string.
      * @throws MonkeyException
      */
-    public Map<String, Object> instrument(String className, Map<String, Object> args) throws MonkeyException{
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            return device.instrument(className, args);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public Map<String, Object> instrument(final String className, final Map<String, Object> args) throws MonkeyException{
+        return execute(new Callable<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> call() throws Exception {
+                return device.instrument(className, args);
+            }
+        });
     }
 
     /**
@@ -192,15 +312,14 @@ public class MonkeyDevice {
      * @param type The type of key event to send. The allowed values are DOWN, UP, and DOWN_AND_UP.
      * @throws MonkeyException
      */
-    public void press(String name, TouchPressType type) throws MonkeyException{
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.press(name, type);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void press(final String name, final TouchPressType type) throws MonkeyException{
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.press(name, type);
+                return null;
+            }
+        });
     }
 
     /**
@@ -209,15 +328,14 @@ public class MonkeyDevice {
      * @param type The type of key event to send. The allowed values are DOWN, UP, and DOWN_AND_UP.
      * @throws MonkeyException
      */
-    public void press(PhysicalButton button, TouchPressType type) throws MonkeyException{
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.press(button, type);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void press(final PhysicalButton button, final TouchPressType type) throws MonkeyException{
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.press(button, type);
+                return null;
+            }
+        });
     }
 
     /**
@@ -225,15 +343,14 @@ public class MonkeyDevice {
      * @param bootloadType The type of bootloader to reboot into. The allowed values are "bootloader", "recovery", or "None".
      * @throws MonkeyException
      */
-    public void reboot(String bootloadType) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.reboot(bootloadType);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void reboot(final String bootloadType) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.reboot(bootloadType);
+                return null;
+            }
+        });
     }
 
     /**
@@ -241,15 +358,14 @@ public class MonkeyDevice {
      * @param packge The Android package name of an .apk file on this device.
      * @throws MonkeyException
      */
-    public void removePackage(String packge) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.removePackage(packge);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void removePackage(final String packge) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.removePackage(packge);
+                return null;
+            }
+        });
     }
 
     /**
@@ -258,15 +374,13 @@ public class MonkeyDevice {
      * @return The results of the command, if any. The format of the results is determined by the command.
      * @throws MonkeyException
      */
-    public String shell(String cmd) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            return device.shell(cmd);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public String shell(final String cmd) throws MonkeyException {
+        return execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return device.shell(cmd);
+            }
+        });
     }
 
     /**
@@ -276,15 +390,13 @@ public class MonkeyDevice {
      * @return The results of the command, if any. The format of the results is determined by the command.
      * @throws MonkeyException
      */
-    public String shell(String cmd, int options) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            return device.shell(cmd, options);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public String shell(final String cmd, final int options) throws MonkeyException {
+        return execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return device.shell(cmd, options);
+            }
+        });
     }
 
     /**
@@ -299,22 +411,21 @@ public class MonkeyDevice {
      * @param flags An iterable data structure containing flags that control how the Intent is handled (see Intent.setFlags()).
      * @throws MonkeyException
      */
-    public void startActivity(@com.android.annotations.Nullable String uri,
-                              @com.android.annotations.Nullable String action,
-                              @com.android.annotations.Nullable String data,
-                              @com.android.annotations.Nullable String mimetype,
-                              java.util.Collection<String> categories,
-                              Map<String,Object> extras,
-                              @com.android.annotations.Nullable String component,
-                              int flags) throws MonkeyException {
-        if (!isDeviceValid(this.device)) {
-            throw new MonkeyException("Device is not valid");
-        }
-        try {
-            device.startActivity(uri, action, data, mimetype, categories, extras, component, flags);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void startActivity(@com.android.annotations.Nullable final String uri,
+                              @com.android.annotations.Nullable final String action,
+                              @com.android.annotations.Nullable final String data,
+                              @com.android.annotations.Nullable final String mimetype,
+                              final java.util.Collection<String> categories,
+                              final Map<String,Object> extras,
+                              @com.android.annotations.Nullable final String component,
+                              final int flags) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.startActivity(uri, action, data, mimetype, categories, extras, component, flags);
+                return null;
+            }
+        });
     }
 
     /**
@@ -322,12 +433,33 @@ public class MonkeyDevice {
      * @return A MonkeyImage object containing the image of the current display.
      */
     public MonkeyImage takeSnapshot() throws MonkeyException{
-        try {
-            isDeviceValid(this.device);
-            return new MonkeyImage(device.takeSnapshot());
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+        return execute(new Callable<MonkeyImage>() {
+            @Override
+            public MonkeyImage call() throws Exception {
+                return new MonkeyImage(device.takeSnapshot());
+            }
+        });
+    }
+
+    /**
+     * Captures the entire screen buffer of this device and reduces its resolution. The device still transfers the full screen,
+     * but all later comparisons, hashes and pixel scans on the result are much cheaper.
+     * @param factor The reduction factor, a power of two such as 2, 4 or 8.
+     * @return A MonkeyImage object containing the downscaled image of the current display.
+     * @throws MonkeyException
+     */
+    public MonkeyImage takeSnapshot(int factor) throws MonkeyException {
+        return takeSnapshot().downscale(factor);
+    }
+
+    /**
+     * Captures the entire screen buffer of this device as 8 bit grayscale with a reduced resolution.
+     * @param factor The reduction factor, a power of two such as 2, 4 or 8. 1 keeps the resolution.
+     * @return A MonkeyLumaImage object containing the grayscale image of the current display.
+     * @throws MonkeyException
+     */
+    public MonkeyLumaImage takeLumaSnapshot(int factor) throws MonkeyException {
+        return takeSnapshot().getLuma(factor);
     }
 
     /**
@@ -337,13 +469,14 @@ public class MonkeyDevice {
      * @param type The type of key event to send. The allowed values are DOWN, UP, and DOWN_AND_UP.
      * @throws MonkeyException
      */
-    public void touch(int x, int y, TouchPressType type) throws MonkeyException {
-        try {
-            isDeviceValid(this.device);
-            device.touch(x, y, type);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
-        }
+    public void touch(final int x, final int y, final TouchPressType type) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.touch(x, y, type);
+                return null;
+            }
+        });
     }
 
     /**
@@ -351,13 +484,48 @@ public class MonkeyDevice {
      * @param message A string containing the characters to send.
      * @throws MonkeyException
      */
-    public void type(String message) throws MonkeyException {
-        try {
-            isDeviceValid(this.device);
-            device.type(message);
-        } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+    public void type(final String message) throws MonkeyException {
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.type(message);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sends the characters contained in message to this device much faster than type() by running the shell input command
+     * on chunks of up to 200 characters. Characters the shell input command cannot carry are sent as key events instead.
+     * @param message A string containing the characters to send.
+     * @return Statistics about the call, including whether every chunk was accepted and the characters per second.
+     * @throws MonkeyException
+     */
+    public MonkeyTypingResult typeFast(String message) throws MonkeyException {
+        return typeFast(message, 200);
+    }
+
+    /**
+     * Sends the characters contained in message to this device much faster than type() by running the shell input command
+     * on chunks of the message. Printable ASCII characters take the fast path. Line feeds and tabs are sent as the ENTER and TAB keys,
+     * all other characters as with type(). A chunk whose shell command reports an error is sent again with type().
+     * A chunk whose shell command prints anything else but warnings is not sent again, it is reported as unverified instead.
+     * Every shell command and key event counts as one operation for the rate limiter, the circuit breaker and the operation timeout.
+     * @param message A string containing the characters to send.
+     * @param chunkSize The maximum number of characters per shell command.
+     * @return Statistics about the call, including whether every chunk was accepted and the characters per second.
+     * @throws MonkeyException
+     */
+    public MonkeyTypingResult typeFast(String message, int chunkSize) throws MonkeyException {
+        if (chunkSize < 1) {
+            throw new MonkeyInvalidArgumentException("Chunk size must be positive");
         }
+        if (message == null) {
+            throw new MonkeyInvalidArgumentException("Message must not be null");
+        }
+        // Not a single operation: every shell command and key event goes through shell(), type() and press(),
+        // so each takes its own permit from the rate limiter and counts for the circuit breaker
+        return new FastTyper(chunkSize).type(message);
     }
 
     /**
@@ -365,11 +533,247 @@ public class MonkeyDevice {
      * @throws MonkeyException
      */
     public void wake() throws MonkeyException{
+        execute(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                device.wake();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sets the circuit breaker that guards this device. While the breaker is open, every operation fails fast with a MonkeyRejectedException
+     * instead of waiting for a device that keeps failing. Invalid arguments do not count against the breaker.
+     * @param circuitBreaker The circuit breaker or null to disable it. The default is null.
+     */
+    public void setCircuitBreaker(MonkeyCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the circuit breaker that guards this device.
+     * @return The circuit breaker or null.
+     */
+    public MonkeyCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the rate limiter for this device, so scripts cannot flood adbd with events.
+     * Every method call takes one permit. perform() also takes one for every touch event of the gesture, MOVE events that find no permit
+     * are dropped. typeFast() takes one for every shell command and key event it sends.
+     * @param rateLimiter The rate limiter or null to disable it. The default is null.
+     */
+    public void setRateLimiter(MonkeyRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the rate limiter for this device.
+     * @return The rate limiter or null.
+     */
+    public MonkeyRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the time after which an operation on this device fails with a MonkeyTimeoutException.
+     * Operations with a timeout run on a separate thread; an operation that timed out is interrupted but may keep running in the background.
+     * @param timeout The timeout in milliseconds or 0 to wait forever. The default is 0.
+     */
+    public void setOperationTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.operationTimeout = timeout;
+    }
+
+    /**
+     * Returns the time after which an operation on this device fails.
+     * @return The timeout in milliseconds or 0 if operations wait forever.
+     */
+    public long getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    private <T> T execute(Callable<T> operation) throws MonkeyException {
+        MonkeyCircuitBreaker breaker = this.circuitBreaker;
+        if (breaker != null && !breaker.allowRequest()) {
+            throw new MonkeyRejectedException("Circuit breaker is open");
+        }
+        boolean recorded = false;
         try {
-            isDeviceValid(this.device);
-            device.wake();
+            MonkeyRateLimiter limiter = this.rateLimiter;
+            if (limiter != null) {
+                limiter.acquire();
+            }
+            T result = invoke(operation);
+            if (breaker != null) {
+                breaker.recordSuccess();
+                recorded = true;
+            }
+            return result;
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            MonkeyException exception = wrap(e);
+            if (breaker != null) {
+                if (exception instanceof MonkeyInvalidArgumentException) {
+                    // The device answered, only the arguments were wrong
+                    breaker.recordSuccess();
+                    recorded = true;
+                } else if (!Thread.currentThread().isInterrupted()) {
+                    breaker.recordFailure();
+                    recorded = true;
+                }
+            }
+            throw exception;
+        } finally {
+            if (breaker != null && !recorded) {
+                // Interrupted or failed with an error: say nothing about the device, but do not keep a half-open probe slot
+                breaker.release();
+            }
+        }
+    }
+
+    private <T> T invoke(final Callable<T> operation) throws Exception {
+        long timeout = this.operationTimeout;
+        if (timeout == 0) {
+            checkDeviceValid();
+            return operation.call();
+        }
+        Future<T> future = TIMEOUT_EXECUTOR.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                checkDeviceValid();
+                return operation.call();
+            }
+        });
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new MonkeyTimeoutException("Operation timed out after " + timeout + " ms", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw wrap(e.getCause());
+        }
+    }
+
+    private void checkDeviceValid() throws MonkeyException {
+        if (!isDeviceValid(this.device)) {
+            throw new MonkeyDisconnectedException("Device is not valid");
+        }
+    }
+
+    /**
+     * Splits a message into shell input chunks and key events for typeFast().
+     */
+    private class FastTyper {
+        private final int chunkSize;
+        private final StringBuilder chunk = new StringBuilder();
+        private final StringBuilder fallback = new StringBuilder();
+        private int chunkCharacters = 0;
+        private int shellCharacters = 0;
+        private int chunks = 0;
+        private int failedChunks = 0;
+        private int unverifiedChunks = 0;
+
+        private FastTyper(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private MonkeyTypingResult type(String message) throws MonkeyException {
+            long start = System.nanoTime();
+            for (int i = 0; i < message.length(); i++) {
+                char c = message.charAt(i);
+                // input text turns "%s" into a space, so a literal % goes the slow way
+                if (c >= ' ' && c <= '~' && c != '%') {
+                    flushFallback();
+                    if (c == ' ') {
+                        chunk.append("%s");
+                    } else if (c == '\'') {
+                        chunk.append("'\\''");
+                    } else {
+                        chunk.append(c);
+                    }
+                    if (++chunkCharacters == chunkSize) {
+                        flushChunk(message, i + 1);
+                    }
+                } else {
+                    flushChunk(message, i);
+                    if (c == '\n') {
+                        flushFallback();
+                        press("KEYCODE_ENTER", TouchPressType.DOWN_AND_UP);
+                    } else if (c == '\t') {
+                        flushFallback();
+                        press("KEYCODE_TAB", TouchPressType.DOWN_AND_UP);
+                    } else {
+                        fallback.append(c);
+                    }
+                }
+            }
+            flushChunk(message, message.length());
+            flushFallback();
+            return new MonkeyTypingResult(message.length(), shellCharacters, chunks, failedChunks, unverifiedChunks,
+                    System.nanoTime() - start);
+        }
+
+        private void flushChunk(String message, int end) throws MonkeyException {
+            if (chunkCharacters == 0) {
+                return;
+            }
+            chunks++;
+            String output = shell("input text '" + chunk + "'");
+            if (isInputError(output)) {
+                // The text did not arrive, so sending it again cannot type it twice
+                failedChunks++;
+                MonkeyDevice.this.type(message.substring(end - chunkCharacters, end));
+            } else {
+                shellCharacters += chunkCharacters;
+                if (hasUnexpectedOutput(output)) {
+                    unverifiedChunks++;
+                }
+            }
+            chunk.setLength(0);
+            chunkCharacters = 0;
+        }
+
+        private boolean isInputError(String output) {
+            for (String line : outputLines(output)) {
+                if (INPUT_ERROR.matcher(line).find()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean hasUnexpectedOutput(String output) {
+            return !outputLines(output).isEmpty();
+        }
+
+        // input text prints nothing on success, but some shells print warnings, e.g. about linker text relocations
+        private List<String> outputLines(String output) {
+            List<String> lines = new ArrayList<String>();
+            if (output == null) {
+                return lines;
+            }
+            for (String line : output.split("\\r?\\n")) {
+                line = line.trim();
+                if (line.length() > 0 && !line.regionMatches(true, 0, "WARNING", 0, 7)) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+
+        private void flushFallback() throws MonkeyException {
+            if (fallback.length() == 0) {
+                return;
+            }
+            MonkeyDevice.this.type(fallback.toString());
+            fallback.setLength(0);
         }
     }
 
@@ -384,7 +788,15 @@ public class MonkeyDevice {
             return true;
         }
         catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw wrap(e);
+        }
+    }
+
+    // I/O failures of an operation on the device mean that the connection to the device is gone
+    private static MonkeyException wrap(Throwable e) {
+        if (e instanceof IOException && !(e instanceof FileNotFoundException)) {
+            return new MonkeyDisconnectedException(e.getMessage(), e);
         }
+        return MonkeyException.wrap(e);
     }
 }
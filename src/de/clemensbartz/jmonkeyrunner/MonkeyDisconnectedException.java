@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+/**
+ * The device cannot be reached, e.g. because it was unplugged or adb lost the connection.
+ */
+public class MonkeyDisconnectedException extends MonkeyException {
+    public MonkeyDisconnectedException(String message) {
+        super(message, null, true);
+    }
+    public MonkeyDisconnectedException(String message, Throwable cause) {
+        super(message, cause, true);
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return true;
+    }
+}
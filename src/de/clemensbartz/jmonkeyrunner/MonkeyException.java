@@ -16,12 +16,88 @@
 
 package de.clemensbartz.jmonkeyrunner;
 
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+
+import java.awt.image.RasterFormatException;
+import java.io.FileNotFoundException;
+
 /**
  * Created by clemens on 01.11.14.
  */
 public class MonkeyException extends Exception {
+    private static volatile boolean lightweight = false;
+
     public MonkeyException() {}
     public MonkeyException(String message) {
         super(message);
     }
+    public MonkeyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Creates an exception for an expected failure. In lightweight mode, retryable failures skip capturing the stack trace.
+     * @param message The message.
+     * @param cause The cause or null.
+     * @param retryable Whether the operation may succeed if it is tried again.
+     */
+    protected MonkeyException(String message, Throwable cause, boolean retryable) {
+        super(message, cause, true, !(retryable && lightweight));
+    }
+
+    /**
+     * Returns whether the failed operation may succeed if it is tried again, e.g. after a timeout.
+     * @return Boolean true if the operation may be retried.
+     */
+    public boolean isRetryable() {
+        return false;
+    }
+
+    /**
+     * Enables or disables the lightweight mode. In lightweight mode, retryable exceptions are created without a stack trace,
+     * which makes them cheap enough for polling loops that fail and retry many times. Causes are kept in either mode.
+     * @param enabled Boolean true to enable the lightweight mode. The default is false.
+     */
+    public static void setLightweight(boolean enabled) {
+        lightweight = enabled;
+    }
+
+    /**
+     * Returns whether the lightweight mode is enabled.
+     * @return Boolean true if retryable exceptions are created without a stack trace.
+     */
+    public static boolean isLightweight() {
+        return lightweight;
+    }
+
+    /**
+     * Converts a failure of the underlying libraries into the matching MonkeyException, keeping it as the cause.
+     * I/O failures become a plain MonkeyException, only MonkeyDevice knows when they mean that the device is gone.
+     * @param e The failure.
+     * @return The exception to throw.
+     */
+    public static MonkeyException wrap(Throwable e) {
+        if (e instanceof MonkeyException) {
+            return (MonkeyException) e;
+        }
+        if (e instanceof com.android.ddmlib.TimeoutException
+                || e instanceof java.util.concurrent.TimeoutException
+                || e instanceof ShellCommandUnresponsiveException) {
+            return new MonkeyTimeoutException(e.getMessage(), e);
+        }
+        if (e instanceof AdbCommandRejectedException) {
+            return new MonkeyRejectedException(e.getMessage(), e);
+        }
+        if (e instanceof IllegalArgumentException
+                || e instanceof IndexOutOfBoundsException
+                || e instanceof RasterFormatException
+                || e instanceof FileNotFoundException) {
+            return new MonkeyInvalidArgumentException(e.getMessage(), e);
+        }
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        return new MonkeyException(e.getMessage(), e);
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import de.clemensbartz.chattychimpchat.core.TouchPressType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A touch gesture made of straight and curved segments, each with its own duration and velocity profile.
+ * The gesture is compiled into a timed stream of DOWN, MOVE and UP events and performed with MonkeyDevice.perform().
+ * Gestures are immutable once built and can be performed on any number of devices.
+ *
+ * A fling that accelerates along a curve and then rests:
+ * new MonkeyGesture(500, 1500).curveTo(500, 1000, 700, 800, 700, 300, 250, MonkeyGesture.Profile.EASE_IN).hold(100)
+ */
+public class MonkeyGesture {
+    /**
+     * How the speed changes along a segment.
+     */
+    public enum Profile {
+        /** Constant speed. */
+        LINEAR,
+        /** Starts slowly and accelerates, like a fling. */
+        EASE_IN,
+        /** Starts fast and decelerates. */
+        EASE_OUT,
+        /** Accelerates and decelerates, like a deliberate swipe. */
+        EASE_IN_OUT;
+
+        double apply(double t) {
+            switch (this) {
+                case EASE_IN:
+                    return t * t;
+                case EASE_OUT:
+                    return 1 - (1 - t) * (1 - t);
+                case EASE_IN_OUT:
+                    return t * t * (3 - 2 * t);
+                default:
+                    return t;
+            }
+        }
+    }
+
+    private final int startX;
+    private final int startY;
+    private final List<Segment> segments;
+
+    /**
+     * Starts a gesture by touching the screen.
+     * @param x The horizontal position of the first touch.
+     * @param y The vertical position of the first touch.
+     */
+    public MonkeyGesture(int x, int y) {
+        this(x, y, new ArrayList<Segment>());
+    }
+
+    private MonkeyGesture(int startX, int startY, List<Segment> segments) {
+        this.startX = startX;
+        this.startY = startY;
+        this.segments = segments;
+    }
+
+    /**
+     * Moves in a straight line at constant speed.
+     * @param x The horizontal end position.
+     * @param y The vertical end position.
+     * @param duration The duration of the movement in milliseconds.
+     * @return A new gesture that ends with this movement.
+     */
+    public MonkeyGesture lineTo(int x, int y, long duration) {
+        return lineTo(x, y, duration, Profile.LINEAR);
+    }
+
+    /**
+     * Moves in a straight line.
+     * @param x The horizontal end position.
+     * @param y The vertical end position.
+     * @param duration The duration of the movement in milliseconds.
+     * @param profile How the speed changes along the line.
+     * @return A new gesture that ends with this movement.
+     */
+    public MonkeyGesture lineTo(int x, int y, long duration, Profile profile) {
+        Point end = end();
+        return append(new Segment(new double[] {end.x, x}, new double[] {end.y, y}, duration, profile));
+    }
+
+    /**
+     * Moves along a cubic Bezier curve at constant parameter speed.
+     * @param controlX1 The horizontal position of the first control point.
+     * @param controlY1 The vertical position of the first control point.
+     * @param controlX2 The horizontal position of the second control point.
+     * @param controlY2 The vertical position of the second control point.
+     * @param x The horizontal end position.
+     * @param y The vertical end position.
+     * @param duration The duration of the movement in milliseconds.
+     * @return A new gesture that ends with this movement.
+     */
+    public MonkeyGesture curveTo(int controlX1, int controlY1, int controlX2, int controlY2, int x, int y, long duration) {
+        return curveTo(controlX1, controlY1, controlX2, controlY2, x, y, duration, Profile.LINEAR);
+    }
+
+    /**
+     * Moves along a cubic Bezier curve.
+     * @param controlX1 The horizontal position of the first control point.
+     * @param controlY1 The vertical position of the first control point.
+     * @param controlX2 The horizontal position of the second control point.
+     * @param controlY2 The vertical position of the second control point.
+     * @param x The horizontal end position.
+     * @param y The vertical end position.
+     * @param duration The duration of the movement in milliseconds.
+     * @param profile How the speed changes along the curve.
+     * @return A new gesture that ends with this movement.
+     */
+    public MonkeyGesture curveTo(int controlX1, int controlY1, int controlX2, int controlY2, int x, int y, long duration, Profile profile) {
+        Point end = end();
+        return append(new Segment(new double[] {end.x, controlX1, controlX2, x}, new double[] {end.y, controlY1, controlY2, y},
+                duration, profile));
+    }
+
+    /**
+     * Keeps touching the screen at the current position.
+     * @param duration The duration in milliseconds.
+     * @return A new gesture that ends with this pause.
+     */
+    public MonkeyGesture hold(long duration) {
+        Point end = end();
+        return append(new Segment(new double[] {end.x}, new double[] {end.y}, duration, Profile.LINEAR));
+    }
+
+    /**
+     * Returns the planned duration of the gesture.
+     * @return The sum of all segment durations in milliseconds.
+     */
+    public long getDuration() {
+        long duration = 0;
+        for (Segment segment : segments) {
+            duration += segment.duration;
+        }
+        return duration;
+    }
+
+    /**
+     * Compiles the gesture into events.
+     * @param interval The time between two MOVE events of a segment in milliseconds.
+     * @return The events in order, with times relative to the DOWN event.
+     */
+    List<Event> compile(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        List<Event> events = new ArrayList<Event>();
+        events.add(new Event(TouchPressType.DOWN, startX, startY, 0));
+        long time = 0;
+        for (Segment segment : segments) {
+            int steps = (int) Math.max(1, (segment.duration + interval - 1) / interval);
+            for (int i = 1; i <= steps; i++) {
+                double t = segment.profile.apply(i / (double) steps);
+                events.add(new Event(TouchPressType.MOVE, (int) Math.round(segment.at(segment.xs, t)),
+                        (int) Math.round(segment.at(segment.ys, t)), time + segment.duration * i / steps));
+            }
+            time += segment.duration;
+        }
+        Event last = events.get(events.size() - 1);
+        events.add(new Event(TouchPressType.UP, last.x, last.y, time));
+        return events;
+    }
+
+    private Point end() {
+        if (segments.isEmpty()) {
+            return new Point(startX, startY);
+        }
+        Segment last = segments.get(segments.size() - 1);
+        return new Point(last.xs[last.xs.length - 1], last.ys[last.ys.length - 1]);
+    }
+
+    private MonkeyGesture append(Segment segment) {
+        if (segment.duration < 0) {
+            throw new IllegalArgumentException("Duration must not be negative");
+        }
+        List<Segment> appended = new ArrayList<Segment>(segments);
+        appended.add(segment);
+        return new MonkeyGesture(startX, startY, appended);
+    }
+
+    private static final class Point {
+        private final double x;
+        private final double y;
+
+        private Point(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * A Bezier curve of degree 0 (hold), 1 (line) or 3 (curve).
+     */
+    private static final class Segment {
+        private final double[] xs;
+        private final double[] ys;
+        private final long duration;
+        private final Profile profile;
+
+        private Segment(double[] xs, double[] ys, long duration, Profile profile) {
+            this.xs = xs;
+            this.ys = ys;
+            this.duration = duration;
+            this.profile = profile;
+        }
+
+        private double at(double[] p, double t) {
+            switch (p.length) {
+                case 1:
+                    return p[0];
+                case 2:
+                    return p[0] + (p[1] - p[0]) * t;
+                default:
+                    double u = 1 - t;
+                    return u * u * u * p[0] + 3 * u * u * t * p[1] + 3 * u * t * t * p[2] + t * t * t * p[3];
+            }
+        }
+    }
+
+    /**
+     * A single touch event of a compiled gesture.
+     */
+    static final class Event {
+        final TouchPressType type;
+        final int x;
+        final int y;
+        final long time;
+
+        private Event(TouchPressType type, int x, int y, long time) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+/**
+ * The timing a MonkeyDevice.perform() call actually achieved.
+ */
+public class MonkeyGestureResult {
+    private final int events;
+    private final int skippedEvents;
+    private final long plannedDuration;
+    private final long actualNanos;
+    private final long maxLatenessNanos;
+    private final long totalLatenessNanos;
+
+    protected MonkeyGestureResult(int events, int skippedEvents, long plannedDuration, long actualNanos, long maxLatenessNanos,
+                                  long totalLatenessNanos) {
+        this.events = events;
+        this.skippedEvents = skippedEvents;
+        this.plannedDuration = plannedDuration;
+        this.actualNanos = actualNanos;
+        this.maxLatenessNanos = maxLatenessNanos;
+        this.totalLatenessNanos = totalLatenessNanos;
+    }
+
+    /**
+     * Returns the number of events that were sent to the device.
+     * @return The number of events.
+     */
+    public int getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the number of MOVE events that were dropped because the device fell behind schedule.
+     * @return The number of skipped events.
+     */
+    public int getSkippedEvents() {
+        return skippedEvents;
+    }
+
+    /**
+     * Returns the planned duration of the gesture.
+     * @return The duration in milliseconds.
+     */
+    public long getPlannedDuration() {
+        return plannedDuration;
+    }
+
+    /**
+     * Returns the time from sending the DOWN event until the UP event was sent.
+     * @return The duration in nanoseconds.
+     */
+    public long getActualNanos() {
+        return actualNanos;
+    }
+
+    /**
+     * Returns how late the latest event was sent compared to its schedule.
+     * @return The lateness in nanoseconds.
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * Returns how late events were sent on average compared to their schedule.
+     * @return The lateness in nanoseconds.
+     */
+    public long getMeanLatenessNanos() {
+        return events == 0 ? 0 : totalLatenessNanos / events;
+    }
+
+    @Override
+    public String toString() {
+        return events + " events (" + skippedEvents + " skipped) in " + (actualNanos / 1000000) + " ms of " + plannedDuration
+                + " ms planned, max lateness " + (maxLatenessNanos / 1000000) + " ms";
+    }
+}
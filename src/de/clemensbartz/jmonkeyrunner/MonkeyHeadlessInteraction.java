@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Answers prompts from preloaded answers without any user interaction, for unattended runs.
+ * An answer is looked up by the prompt's message first and by its title second.
+ * A choice answer is either the 0-based index or the text of the choice. Prompts without an answer are answered with defaults:
+ * alerts are acknowledged, choices are cancelled and inputs return their initial value.
+ * Lookups do not lock, so any number of device threads can prompt at the same time.
+ */
+public class MonkeyHeadlessInteraction implements MonkeyInteraction {
+    private final ConcurrentMap<String, String> answers = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Creates an interaction without answers.
+     */
+    public MonkeyHeadlessInteraction() {}
+
+    /**
+     * Creates an interaction with answers.
+     * @param answers The answers, keyed by prompt message or title.
+     */
+    public MonkeyHeadlessInteraction(Map<String, String> answers) {
+        this.answers.putAll(answers);
+    }
+
+    /**
+     * Creates an interaction with answers from a properties file.
+     * @param filename The fully-qualified filename of a properties file whose keys are prompt messages or titles.
+     * @return The interaction.
+     * @throws MonkeyException
+     */
+    public static MonkeyHeadlessInteraction fromFile(String filename) throws MonkeyException {
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(filename);
+            properties.load(in);
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+        MonkeyHeadlessInteraction interaction = new MonkeyHeadlessInteraction();
+        for (String key : properties.stringPropertyNames()) {
+            interaction.setAnswer(key, properties.getProperty(key));
+        }
+        return interaction;
+    }
+
+    /**
+     * Sets or replaces an answer. Safe to call while other threads are prompting.
+     * @param key The prompt message or title.
+     * @param answer The answer or null to remove it.
+     */
+    public void setAnswer(String key, String answer) {
+        if (answer == null) {
+            answers.remove(key);
+        } else {
+            answers.put(key, answer);
+        }
+    }
+
+    @Override
+    public void alert(String message, String title, String okTitle) {
+        // Nobody is watching, the alert counts as acknowledged
+    }
+
+    @Override
+    public int choice(String message, Collection<String> choices, String title) {
+        String answer = answerOf(message, title);
+        if (answer == null) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(answer.trim());
+            return (index >= 0 && index < choices.size()) ? index : -1;
+        } catch (NumberFormatException e) {
+            int index = 0;
+            for (Iterator<String> iterator = choices.iterator(); iterator.hasNext(); index++) {
+                if (answer.equals(iterator.next())) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public String input(String message, String initialValue, String title, String okTitle, String cancelTitle) {
+        String answer = answerOf(message, title);
+        if (answer != null) {
+            return answer;
+        }
+        return initialValue == null ? "" : initialValue;
+    }
+
+    private String answerOf(String message, String title) {
+        String answer = (message == null) ? null : answers.get(message);
+        if (answer == null && title != null) {
+            answer = answers.get(title);
+        }
+        return answer;
+    }
+}
@@ -16,19 +16,25 @@
 
 package de.clemensbartz.jmonkeyrunner;
 
+import de.clemensbartz.chattychimpchat.core.ChimpImageBase;
 import de.clemensbartz.chattychimpchat.core.IChimpImage;
 
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 /**
  * Created by clemens on 01.11.14.
  */
 public class MonkeyImage {
-    IChimpImage image;
+    private final IChimpImage image;
     protected MonkeyImage(IChimpImage image) {
         this.image = image;
     }
 
+    protected MonkeyImage(BufferedImage image) {
+        this(new BufferedChimpImage(image));
+    }
+
     /**
      * Converts the current image to a particular format and returns it as a string that you can then access as an iterable of binary bytes.
      * @param format The desired output format. All of the common raster output formats are supported. The default value is "png" (Portable Network Graphics).
@@ -40,7 +46,7 @@ public class MonkeyImage {
             isImageValid(this.image);
             return image.convertToBytes(format);
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
         }
     }
 
@@ -56,7 +62,7 @@ public class MonkeyImage {
             isImageValid(this.image);
             return image.getPixel(x, y);
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
         }
     }
 
@@ -92,7 +98,7 @@ public class MonkeyImage {
             isImageValid(this.image);
             return new MonkeyImage(image.getSubImage(x, y, width, height));
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
         }
     }
 
@@ -133,7 +139,96 @@ public class MonkeyImage {
             double diffPercent = numDiffPixels / numberPixels;
             return percent <= 1.0 - diffPercent;
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Returns a perceptual hash of the whole image. Similar images have hashes with a small hamming distance, see MonkeyImageHash.distance().
+     * @return A 64 bit perceptual hash.
+     * @throws MonkeyException
+     */
+    public long getHash() throws MonkeyException {
+        try {
+            isImageValid(this.image);
+            BufferedImage myImage = image.getBufferedImage();
+            return MonkeyImageHash.hash(myImage, 0, 0, myImage.getWidth(), myImage.getHeight());
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Returns a perceptual hash of a rectangular selection of the current image.
+     * @param x The 0-based horizontal position of the upper left-hand corner of the selection.
+     * @param y The 0-based vertical position of the upper left-hand corner of the selection.
+     * @param width The width of the selection.
+     * @param height The height of the selection.
+     * @return A 64 bit perceptual hash.
+     * @throws MonkeyException
+     */
+    public long getHash(int x, int y, int width, int height) throws MonkeyException {
+        try {
+            isImageValid(this.image);
+            return MonkeyImageHash.hash(image.getBufferedImage(), x, y, width, height);
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Splits the image into a grid of equally sized cells and returns a perceptual hash for each cell.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     * @return columns * rows hashes in row-major order.
+     * @throws MonkeyException
+     */
+    public long[] getGridHashes(int columns, int rows) throws MonkeyException {
+        try {
+            isImageValid(this.image);
+            return MonkeyImageHash.gridHashes(image.getBufferedImage(), columns, rows);
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Creates a new MonkeyImage with a reduced resolution. Every factor x factor block of pixels is averaged into one pixel.
+     * Use it for checks that do not need the full resolution; comparisons and hashes of the result are much cheaper.
+     * @param factor The reduction factor, a power of two such as 2, 4 or 8.
+     * @return The downscaled image.
+     * @throws MonkeyException
+     */
+    public MonkeyImage downscale(int factor) throws MonkeyException {
+        try {
+            isImageValid(this.image);
+            return new MonkeyImage(downscale(image.getBufferedImage(), factor));
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Returns the image as 8 bit grayscale in full resolution.
+     * @return The luma image.
+     * @throws MonkeyException
+     */
+    public MonkeyLumaImage getLuma() throws MonkeyException {
+        return getLuma(1);
+    }
+
+    /**
+     * Returns the image as 8 bit grayscale with a reduced resolution. Every factor x factor block of pixels is averaged into one pixel.
+     * @param factor The reduction factor, a power of two such as 2, 4 or 8. 1 keeps the resolution.
+     * @return The luma image.
+     * @throws MonkeyException
+     */
+    public MonkeyLumaImage getLuma(int factor) throws MonkeyException {
+        try {
+            isImageValid(this.image);
+            return MonkeyLumaImage.from(image.getBufferedImage(), factor);
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
         }
     }
 
@@ -148,12 +243,13 @@ public class MonkeyImage {
             isImageValid(this.image);
             image.writeToFile(filename, format);
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
         }
     }
 
     /**
-     * Returns the image as a BufferedImage
+     * Returns the image as a BufferedImage. The BufferedImage is the live image, not a copy: changes to it affect this MonkeyImage.
+     * Use getSnapshot() to share an image between threads.
      * @return A BufferedImage
      * @throws MonkeyException
      */
@@ -162,7 +258,22 @@ public class MonkeyImage {
             isImageValid(this.image);
             return image.getBufferedImage();
         } catch (Exception e) {
-            throw new MonkeyException(e.getMessage());
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Copies the image into an immutable MonkeySnapshot that can be shared between threads.
+     * Derived data of the snapshot, such as luma planes and hashes, is computed once and reused by all threads.
+     * @return The snapshot.
+     * @throws MonkeyException
+     */
+    public MonkeySnapshot getSnapshot() throws MonkeyException {
+        try {
+            isImageValid(this.image);
+            return MonkeySnapshot.of(image.getBufferedImage());
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
         }
     }
 
@@ -172,4 +283,61 @@ public class MonkeyImage {
         }
         return true;
     }
+
+    static BufferedImage downscale(BufferedImage source, int factor) {
+        int shift = MonkeyLumaImage.shiftOf(factor);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int outWidth = (width + factor - 1) >> shift;
+        int outHeight = (height + factor - 1) >> shift;
+        BufferedImage target = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[width];
+        int[] out = new int[outWidth];
+        int[] a = new int[outWidth];
+        int[] r = new int[outWidth];
+        int[] g = new int[outWidth];
+        int[] b = new int[outWidth];
+        for (int oy = 0; oy < outHeight; oy++) {
+            int top = oy << shift;
+            int bottom = Math.min(top + factor, height);
+            Arrays.fill(a, 0);
+            Arrays.fill(r, 0);
+            Arrays.fill(g, 0);
+            Arrays.fill(b, 0);
+            for (int y = top; y < bottom; y++) {
+                source.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    int ox = x >> shift;
+                    a[ox] += argb >>> 24;
+                    r[ox] += (argb >> 16) & 0xFF;
+                    g[ox] += (argb >> 8) & 0xFF;
+                    b[ox] += argb & 0xFF;
+                }
+            }
+            int rows = bottom - top;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int count = (Math.min((ox + 1) << shift, width) - (ox << shift)) * rows;
+                out[ox] = (a[ox] / count) << 24 | (r[ox] / count) << 16 | (g[ox] / count) << 8 | (b[ox] / count);
+            }
+            target.setRGB(0, oy, outWidth, 1, out, 0, outWidth);
+        }
+        return target;
+    }
+
+    /**
+     * An image that is held in memory rather than backed by a device.
+     */
+    private static class BufferedChimpImage extends ChimpImageBase {
+        private final BufferedImage image;
+
+        private BufferedChimpImage(BufferedImage image) {
+            this.image = image;
+        }
+
+        @Override
+        public BufferedImage createBufferedImage() {
+            return image;
+        }
+    }
 }
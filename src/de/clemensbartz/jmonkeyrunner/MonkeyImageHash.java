@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Perceptual 64 bit difference hashes of images.
+ * A region is reduced to a 9x8 grid of average luma values and every bit of the hash tells whether a cell is darker than its right neighbour.
+ * Similar images yield hashes with a small hamming distance, see {@link #distance(long, long)}.
+ */
+public final class MonkeyImageHash {
+    private static final int CELLS_X = 9;
+    private static final int CELLS_Y = 8;
+
+    private MonkeyImageHash() {}
+
+    /**
+     * Returns the number of bits in which two hashes differ.
+     * @param a The first hash.
+     * @param b The second hash.
+     * @return A value from 0 (equal) to 64.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Returns the summed number of bits in which two sets of hashes differ.
+     * @param a The first hashes.
+     * @param b The second hashes.
+     * @return The summed hamming distance or Integer.MAX_VALUE if the sets have different lengths.
+     */
+    public static int distance(long[] a, long[] b) {
+        if (a.length != b.length) {
+            return Integer.MAX_VALUE;
+        }
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Computes the hash of a region of an image.
+     * @param image The image.
+     * @param x The left edge of the region.
+     * @param y The top edge of the region.
+     * @param width The width of the region.
+     * @param height The height of the region.
+     * @return The hash.
+     */
+    static long hash(BufferedImage image, int x, int y, int width, int height) {
+        checkRegion(image.getWidth(), image.getHeight(), x, y, width, height);
+        long[] sums = new long[CELLS_X * CELLS_Y];
+        int[] cellOfColumn = cellsOf(width, CELLS_X);
+        int[] row = new int[width];
+        for (int j = 0; j < height; j++) {
+            image.getRGB(x, y + j, width, 1, row, 0, width);
+            int base = (j * CELLS_Y / height) * CELLS_X;
+            for (int i = 0; i < width; i++) {
+                sums[base + cellOfColumn[i]] += luma(row[i]);
+            }
+        }
+        return fromSums(sums, width, height);
+    }
+
+    /**
+     * Computes the hash of a region of a luma plane.
+     * @param luma The luma plane, one unsigned byte per pixel in row-major order.
+     * @param imageWidth The width of the plane.
+     * @param imageHeight The height of the plane.
+     * @param x The left edge of the region.
+     * @param y The top edge of the region.
+     * @param width The width of the region.
+     * @param height The height of the region.
+     * @return The hash.
+     */
+    static long hash(byte[] luma, int imageWidth, int imageHeight, int x, int y, int width, int height) {
+        checkRegion(imageWidth, imageHeight, x, y, width, height);
+        long[] sums = new long[CELLS_X * CELLS_Y];
+        int[] cellOfColumn = cellsOf(width, CELLS_X);
+        for (int j = 0; j < height; j++) {
+            int offset = (y + j) * imageWidth + x;
+            int base = (j * CELLS_Y / height) * CELLS_X;
+            for (int i = 0; i < width; i++) {
+                sums[base + cellOfColumn[i]] += luma[offset + i] & 0xFF;
+            }
+        }
+        return fromSums(sums, width, height);
+    }
+
+    /**
+     * Computes the hashes of a grid of equally sized cells covering a luma plane, in row-major order.
+     * @param luma The luma plane, one unsigned byte per pixel in row-major order.
+     * @param width The width of the plane.
+     * @param height The height of the plane.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     * @return columns * rows hashes.
+     */
+    static long[] gridHashes(byte[] luma, int width, int height, int columns, int rows) {
+        checkGrid(width, height, columns, rows);
+        long[] hashes = new long[columns * rows];
+        for (int r = 0; r < rows; r++) {
+            int top = r * height / rows;
+            int bottom = (r + 1) * height / rows;
+            for (int c = 0; c < columns; c++) {
+                int left = c * width / columns;
+                int right = (c + 1) * width / columns;
+                hashes[r * columns + c] = hash(luma, width, height, left, top, right - left, bottom - top);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Computes the hashes of a grid of equally sized cells covering an image, in row-major order.
+     * @param image The image.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     * @return columns * rows hashes.
+     */
+    static long[] gridHashes(BufferedImage image, int columns, int rows) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        checkGrid(width, height, columns, rows);
+        long[] hashes = new long[columns * rows];
+        for (int r = 0; r < rows; r++) {
+            int top = r * height / rows;
+            int bottom = (r + 1) * height / rows;
+            for (int c = 0; c < columns; c++) {
+                int left = c * width / columns;
+                int right = (c + 1) * width / columns;
+                hashes[r * columns + c] = hash(image, left, top, right - left, bottom - top);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Converts an ARGB pixel to its 8 bit luma value (ITU-R BT.601 weights in fixed point).
+     */
+    static int luma(int argb) {
+        return (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150 + (argb & 0xFF) * 29) >> 8;
+    }
+
+    static void checkRegion(int imageWidth, int imageHeight, int x, int y, int width, int height) {
+        if (width < 1 || height < 1 || x < 0 || y < 0 || x + width > imageWidth || y + height > imageHeight) {
+            throw new IllegalArgumentException("Region (" + x + ", " + y + ", " + width + ", " + height + ") is outside of the image");
+        }
+    }
+
+    static void checkGrid(int width, int height, int columns, int rows) {
+        if (columns < 1 || rows < 1 || columns > width || rows > height) {
+            throw new IllegalArgumentException("Grid " + columns + "x" + rows + " does not fit the image");
+        }
+    }
+
+    static int[] cellsOf(int length, int cells) {
+        int[] cellOf = new int[length];
+        for (int i = 0; i < length; i++) {
+            cellOf[i] = i * cells / length;
+        }
+        return cellOf;
+    }
+
+    static long fromSums(long[] sums, int width, int height) {
+        // Cells may differ in size by one pixel, so compare averages rather than sums
+        int[] cellWidths = new int[CELLS_X];
+        int[] cellHeights = new int[CELLS_Y];
+        for (int i = 0; i < width; i++) {
+            cellWidths[i * CELLS_X / width]++;
+        }
+        for (int j = 0; j < height; j++) {
+            cellHeights[j * CELLS_Y / height]++;
+        }
+        long hash = 0;
+        for (int cy = 0; cy < CELLS_Y; cy++) {
+            for (int cx = 0; cx < CELLS_X - 1; cx++) {
+                long left = average(sums[cy * CELLS_X + cx], cellWidths[cx] * cellHeights[cy]);
+                long right = average(sums[cy * CELLS_X + cx + 1], cellWidths[cx + 1] * cellHeights[cy]);
+                hash <<= 1;
+                if (left < right) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long average(long sum, int count) {
+        return count == 0 ? 0 : (sum << 8) / count;
+    }
+}
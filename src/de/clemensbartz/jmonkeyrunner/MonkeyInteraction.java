@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.util.Collection;
+
+/**
+ * Answers the prompts of MonkeyRunner.alert(), choice() and input(). Implementations must be safe to call from many threads at once.
+ * Set the implementation with MonkeyRunner.setInteraction().
+ */
+public interface MonkeyInteraction {
+    /**
+     * Shows a message and waits until it was acknowledged.
+     * @param message The message to display.
+     * @param title The title of the prompt.
+     * @param okTitle The text of the button that acknowledges the message.
+     */
+    void alert(String message, String title, String okTitle);
+
+    /**
+     * Asks to select one of several choices.
+     * @param message The prompt message.
+     * @param choices The choices.
+     * @param title The title of the prompt.
+     * @return The 0-based index of the selected choice or -1 if the prompt was cancelled.
+     */
+    int choice(String message, Collection<String> choices, String title);
+
+    /**
+     * Asks for a line of input.
+     * @param message The prompt message.
+     * @param initialValue The initial value of the input.
+     * @param title The title of the prompt.
+     * @param okTitle The text of the button that confirms the input.
+     * @param cancelTitle The text of the button that cancels the prompt.
+     * @return The input or an empty string if the prompt was cancelled.
+     */
+    String input(String message, String initialValue, String title, String okTitle, String cancelTitle);
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+/**
+ * A unit of work that is run on a device chosen by a MonkeyScheduler.
+ * @param <T> The type of the result.
+ */
+public interface MonkeyJob<T> {
+    /**
+     * Runs the job. The scheduler guarantees that no other job uses the device at the same time.
+     * @param device The device assigned to the job.
+     * @return The result of the job.
+     * @throws MonkeyException
+     */
+    T run(MonkeyDevice device) throws MonkeyException;
+}
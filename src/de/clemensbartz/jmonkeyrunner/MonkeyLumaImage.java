@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * An 8 bit grayscale image, optionally downscaled, for cheap checks that do not need full color or resolution.
+ * Obtain one from MonkeyImage.getLuma() or MonkeyDevice.takeLumaSnapshot().
+ */
+public class MonkeyLumaImage {
+    private final int width;
+    private final int height;
+    private final byte[] luma;
+
+    protected MonkeyLumaImage(int width, int height, byte[] luma) {
+        if (luma.length != width * height) {
+            throw new IllegalArgumentException("Luma plane does not match " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.luma = luma;
+    }
+
+    /**
+     * Converts an image to luma, averaging every factor x factor block of pixels into one.
+     * @param image The image.
+     * @param factor The reduction factor, a power of two. 1 keeps the resolution.
+     * @return The luma image.
+     */
+    static MonkeyLumaImage from(BufferedImage image, int factor) {
+        int shift = shiftOf(factor);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int outWidth = (width + factor - 1) >> shift;
+        int outHeight = (height + factor - 1) >> shift;
+        byte[] luma = new byte[outWidth * outHeight];
+        int[] row = new int[width];
+        int[] sums = new int[outWidth];
+        for (int oy = 0; oy < outHeight; oy++) {
+            int top = oy << shift;
+            int bottom = Math.min(top + factor, height);
+            Arrays.fill(sums, 0);
+            for (int y = top; y < bottom; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    sums[x >> shift] += MonkeyImageHash.luma(row[x]);
+                }
+            }
+            int offset = oy * outWidth;
+            int rows = bottom - top;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int columns = Math.min((ox + 1) << shift, width) - (ox << shift);
+                luma[offset + ox] = (byte) (sums[ox] / (columns * rows));
+            }
+        }
+        return new MonkeyLumaImage(outWidth, outHeight, luma);
+    }
+
+    static int shiftOf(int factor) {
+        if (factor < 1 || Integer.bitCount(factor) != 1) {
+            throw new IllegalArgumentException("Factor must be a power of two, but was " + factor);
+        }
+        return Integer.numberOfTrailingZeros(factor);
+    }
+
+    /**
+     * Returns the width of the image.
+     * @return The width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     * @return The height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the luma of a single pixel.
+     * @param x The horizontal position of the pixel.
+     * @param y The vertical position of the pixel.
+     * @return A value from 0 (black) to 255 (white).
+     */
+    public int getLuma(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IllegalArgumentException("Pixel (" + x + ", " + y + ") is outside of the image");
+        }
+        return luma[y * width + x] & 0xFF;
+    }
+
+    /**
+     * Creates a new MonkeyLumaImage from a rectangular selection of the current image.
+     * @param x The 0-based horizontal position of the upper left-hand corner of the selection.
+     * @param y The 0-based vertical position of the upper left-hand corner of the selection.
+     * @param width The width of the selection.
+     * @param height The height of the selection.
+     * @return The selection.
+     */
+    public MonkeyLumaImage getSubImage(int x, int y, int width, int height) {
+        MonkeyImageHash.checkRegion(this.width, this.height, x, y, width, height);
+        byte[] sub = new byte[width * height];
+        for (int j = 0; j < height; j++) {
+            System.arraycopy(luma, (y + j) * this.width + x, sub, j * width, width);
+        }
+        return new MonkeyLumaImage(width, height, sub);
+    }
+
+    /**
+     * Compares this image to another one pixel by pixel.
+     * @param other Another MonkeyLumaImage of the same size.
+     * @param percent A float in the range 0.0 to 1.0, inclusive, indicating the percentage of pixels that need to be the same.
+     * @return Boolean true if the images match, or boolean false otherwise.
+     */
+    public boolean sameAs(MonkeyLumaImage other, double percent) {
+        return sameAs(other, percent, 0);
+    }
+
+    /**
+     * Compares this image to another one pixel by pixel.
+     * @param other Another MonkeyLumaImage of the same size.
+     * @param percent A float in the range 0.0 to 1.0, inclusive, indicating the percentage of pixels that need to be the same.
+     * @param tolerance The luma difference up to which two pixels are considered the same, e.g. to absorb scaling noise.
+     * @return Boolean true if the images match, or boolean false otherwise.
+     */
+    public boolean sameAs(MonkeyLumaImage other, double percent, int tolerance) {
+        if (other.width != width || other.height != height) {
+            return false;
+        }
+        byte[] otherLuma = other.luma;
+        int numDiffPixels = 0;
+        for (int i = 0; i < luma.length; i++) {
+            int diff = (luma[i] & 0xFF) - (otherLuma[i] & 0xFF);
+            if (diff > tolerance || -diff > tolerance) {
+                numDiffPixels++;
+            }
+        }
+        double diffPercent = numDiffPixels / (double) luma.length;
+        return percent <= 1.0 - diffPercent;
+    }
+
+    /**
+     * Returns a perceptual hash of the whole image, comparable to MonkeyImage.getHash() of the same screen at any scale.
+     * @return A 64 bit perceptual hash.
+     */
+    public long getHash() {
+        return MonkeyImageHash.hash(luma, width, height, 0, 0, width, height);
+    }
+
+    /**
+     * Returns a perceptual hash of a rectangular selection of the current image.
+     * @param x The 0-based horizontal position of the upper left-hand corner of the selection.
+     * @param y The 0-based vertical position of the upper left-hand corner of the selection.
+     * @param width The width of the selection.
+     * @param height The height of the selection.
+     * @return A 64 bit perceptual hash.
+     */
+    public long getHash(int x, int y, int width, int height) {
+        return MonkeyImageHash.hash(luma, this.width, this.height, x, y, width, height);
+    }
+
+    /**
+     * Splits the image into a grid of equally sized cells and returns a perceptual hash for each cell.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     * @return columns * rows hashes in row-major order.
+     */
+    public long[] getGridHashes(int columns, int rows) {
+        return MonkeyImageHash.gridHashes(luma, width, height, columns, rows);
+    }
+
+    /**
+     * Searches the image for the position where a template fits best.
+     * @param template The image to search for. It must be taken at the same scale as this image.
+     * @param maxDifference The highest mean luma difference per pixel, from 0 to 255, at which the template still counts as found.
+     * @return The upper left-hand corner of the best match or null if the template was not found.
+     */
+    public Point locate(MonkeyLumaImage template, double maxDifference) {
+        int templateWidth = template.width;
+        int templateHeight = template.height;
+        if (templateWidth > width || templateHeight > height) {
+            return null;
+        }
+        byte[] templateLuma = template.luma;
+        long limit = (long) (maxDifference * templateWidth * templateHeight);
+        long best = limit + 1;
+        Point location = null;
+        for (int oy = 0; oy + templateHeight <= height; oy++) {
+            for (int ox = 0; ox + templateWidth <= width; ox++) {
+                long difference = 0;
+                for (int ty = 0; ty < templateHeight && difference < best; ty++) {
+                    int offset = (oy + ty) * width + ox;
+                    int templateOffset = ty * templateWidth;
+                    for (int tx = 0; tx < templateWidth; tx++) {
+                        difference += Math.abs((luma[offset + tx] & 0xFF) - (templateLuma[templateOffset + tx] & 0xFF));
+                    }
+                }
+                if (difference < best) {
+                    best = difference;
+                    location = new Point(ox, oy);
+                    if (difference == 0) {
+                        return location;
+                    }
+                }
+            }
+        }
+        return location;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits the rate of operations. Tokens are refilled continuously up to the bucket's capacity,
+ * so short bursts pass at full speed while the sustained rate stays bounded.
+ * The limiter is thread-safe and can be shared by all threads that use a device.
+ * See MonkeyDevice.setRateLimiter() for the operations that take permits.
+ */
+public class MonkeyRateLimiter {
+    private final double permitsPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a rate limiter with a full bucket.
+     * @param permitsPerSecond The sustained number of operations per second.
+     * @param burst The number of operations that may pass at once after an idle period.
+     */
+    public MonkeyRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a permit if one is available.
+     * @return Boolean true if a permit was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a permit, waiting until one is available.
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                wait = (long) Math.ceil((1 - tokens) / permitsPerNano);
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+}
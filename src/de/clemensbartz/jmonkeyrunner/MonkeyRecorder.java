@@ -0,0 +1,325 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Records a sequence of screenshots into a compact container file that can be read with MonkeyRecording.
+ * Every frame is split into square tiles and stored as the XOR against the previous frame; unchanged tiles cost one bit
+ * and changed tiles are run-length encoded, or stored raw where that is smaller. Every keyframeInterval frames a keyframe is stored so frames can be restored
+ * without decoding the whole recording. The file is only ever appended to, through memory-mapped segments.
+ *
+ * File layout: a header of {@value #HEADER_SIZE} bytes, the frame records, and the frame index, which is written on close.
+ * A record is a type byte, the timestamp, the payload length, a CRC32 of the timestamp, length and payload, and the payload.
+ * The type byte is written last, so a record the recorder did not finish still reads as the unused space after the last record.
+ * If the recorder was not closed the index is missing and MonkeyRecording rebuilds it by scanning the records up to the first
+ * one that is unfinished or fails its checksum.
+ */
+public class MonkeyRecorder implements Closeable {
+    static final int MAGIC = 0x4A4D5243;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int HEADER_INDEX_OFFSET = 24;
+    static final int HEADER_FRAME_COUNT = 32;
+    static final byte KEYFRAME = 1;
+    static final byte DELTA = 2;
+    static final int RECORD_HEADER_SIZE = 17;
+    static final int INDEX_ENTRY_SIZE = 17;
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int keyframeInterval;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<long[]> index = new ArrayList<long[]>();
+    private MappedByteBuffer segment;
+    private long position = HEADER_SIZE;
+    private int[] previous;
+    private int[] current;
+    private ByteBuffer staging = ByteBuffer.allocate(64 * 1024);
+    private boolean closed = false;
+
+    /**
+     * Creates a recorder with 32x32 pixel tiles and a keyframe every 30 frames. An existing file is overwritten.
+     * @param filename The fully-qualified filename of the recording.
+     * @param width The width of every frame.
+     * @param height The height of every frame.
+     * @throws MonkeyException
+     */
+    public MonkeyRecorder(String filename, int width, int height) throws MonkeyException {
+        this(filename, width, height, 32, 30);
+    }
+
+    /**
+     * Creates a recorder. An existing file is overwritten.
+     * @param filename The fully-qualified filename of the recording.
+     * @param width The width of every frame.
+     * @param height The height of every frame.
+     * @param tileSize The edge length of the tiles that are compared between frames.
+     * @param keyframeInterval The number of frames from one keyframe to the next. Smaller values speed up random access and cost space.
+     * @throws MonkeyException
+     */
+    public MonkeyRecorder(String filename, int width, int height, int tileSize, int keyframeInterval) throws MonkeyException {
+        if (width < 1 || height < 1 || tileSize < 1 || keyframeInterval < 1) {
+            throw new MonkeyInvalidArgumentException("Width, height, tile size and keyframe interval must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.keyframeInterval = keyframeInterval;
+        this.previous = new int[width * height];
+        this.current = new int[width * height];
+        try {
+            file = new RandomAccessFile(filename, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(tileSize).putInt(keyframeInterval);
+            header.putLong(HEADER_INDEX_OFFSET, 0).putInt(HEADER_FRAME_COUNT, 0);
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Appends a frame, timestamped with the current time.
+     * @param image The frame. It must have the size given to the constructor.
+     * @throws MonkeyException
+     */
+    public void addFrame(MonkeyImage image) throws MonkeyException {
+        addFrame(image, System.currentTimeMillis());
+    }
+
+    /**
+     * Appends a frame.
+     * @param image The frame. It must have the size given to the constructor.
+     * @param timestamp The capture time of the frame in milliseconds.
+     * @throws MonkeyException
+     */
+    public synchronized void addFrame(MonkeyImage image, long timestamp) throws MonkeyException {
+        if (closed) {
+            throw new MonkeyException("Recorder is closed");
+        }
+        BufferedImage frame = image.getBufferedImage();
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            throw new MonkeyInvalidArgumentException("Frame is " + frame.getWidth() + "x" + frame.getHeight()
+                    + " but the recording is " + width + "x" + height);
+        }
+        try {
+            frame.getRGB(0, 0, width, height, current, 0, width);
+            boolean keyframe = index.size() % keyframeInterval == 0;
+            if (keyframe) {
+                // A keyframe is a delta against a blank frame, so both decode the same way
+                Arrays.fill(previous, 0);
+            }
+            encode();
+            int length = staging.position();
+            ensure(RECORD_HEADER_SIZE + length);
+            int start = segment.position();
+            segment.position(start + RECORD_HEADER_SIZE);
+            segment.put(staging.array(), 0, length);
+            segment.putLong(start + 1, timestamp).putInt(start + 9, length).putInt(start + 13, checksum(timestamp, length, staging.array(), 0));
+            // The type byte marks the record as complete, so it goes last
+            segment.put(start, keyframe ? KEYFRAME : DELTA);
+            index.add(new long[] {position, timestamp, keyframe ? KEYFRAME : DELTA});
+            position += RECORD_HEADER_SIZE + length;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Returns the number of frames recorded so far.
+     * @return The number of frames.
+     */
+    public synchronized int getFrameCount() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     * @return The size of the recording.
+     */
+    public synchronized long getSize() {
+        return position;
+    }
+
+    /**
+     * Writes the frame index and closes the file.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long indexOffset = position;
+            ensure(index.size() * INDEX_ENTRY_SIZE);
+            for (long[] entry : index) {
+                segment.putLong(entry[0]).putLong(entry[1]).put((byte) entry[2]);
+            }
+            position += index.size() * INDEX_ENTRY_SIZE;
+            if (segment != null) {
+                segment.force();
+            }
+            header.putLong(HEADER_INDEX_OFFSET, indexOffset).putInt(HEADER_FRAME_COUNT, index.size());
+            header.force();
+            try {
+                channel.truncate(position);
+            } catch (IOException e) {
+                // Some platforms refuse to truncate mapped files; the header still points at the index
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Computes the checksum that is stored with every record.
+     */
+    static int checksum(long timestamp, int length, byte[] payload, int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putLong(timestamp).putInt(length).array());
+        crc.update(payload, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private void ensure(int length) throws IOException {
+        if (segment != null && segment.remaining() >= length) {
+            return;
+        }
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(SEGMENT_SIZE, length));
+    }
+
+    private void encode() {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        int tiles = tilesX * tilesY;
+        staging.clear();
+        grow((tiles + 7) / 8);
+        int bitmap = staging.position();
+        staging.position(bitmap + (tiles + 7) / 8);
+        Arrays.fill(staging.array(), bitmap, staging.position(), (byte) 0);
+        for (int ty = 0; ty < tilesY; ty++) {
+            int y0 = ty * tileSize;
+            int y1 = Math.min(y0 + tileSize, height);
+            for (int tx = 0; tx < tilesX; tx++) {
+                int x0 = tx * tileSize;
+                int x1 = Math.min(x0 + tileSize, width);
+                if (!changed(x0, y0, x1, y1)) {
+                    continue;
+                }
+                int tile = ty * tilesX + tx;
+                staging.array()[bitmap + (tile >> 3)] |= 1 << (tile & 7);
+                encodeTile(x0, y0, x1, y1);
+            }
+        }
+    }
+
+    private boolean changed(int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            int offset = y * width;
+            for (int x = x0; x < x1; x++) {
+                if (current[offset + x] != previous[offset + x]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void encodeTile(int x0, int y0, int x1, int y1) {
+        // Runs of equal XOR values: (varint length, int value). A tile where this is larger than storing every XOR value,
+        // e.g. because of noise, is stored raw instead: a run of length 0 as the flag, followed by one int per pixel.
+        int start = staging.position();
+        int rawLength = 1 + (x1 - x0) * (y1 - y0) * 4;
+        int run = 0;
+        int value = 0;
+        for (int y = y0; y < y1; y++) {
+            int offset = y * width;
+            for (int x = x0; x < x1; x++) {
+                int xor = current[offset + x] ^ previous[offset + x];
+                if (run > 0 && xor != value) {
+                    writeRun(run, value);
+                    if (staging.position() - start >= rawLength) {
+                        staging.position(start);
+                        encodeRawTile(x0, y0, x1, y1, rawLength);
+                        return;
+                    }
+                    run = 0;
+                }
+                value = xor;
+                run++;
+            }
+        }
+        writeRun(run, value);
+        if (staging.position() - start > rawLength) {
+            staging.position(start);
+            encodeRawTile(x0, y0, x1, y1, rawLength);
+        }
+    }
+
+    private void encodeRawTile(int x0, int y0, int x1, int y1, int rawLength) {
+        grow(rawLength);
+        staging.put((byte) 0);
+        for (int y = y0; y < y1; y++) {
+            int offset = y * width;
+            for (int x = x0; x < x1; x++) {
+                staging.putInt(current[offset + x] ^ previous[offset + x]);
+            }
+        }
+    }
+
+    private void writeRun(int run, int value) {
+        grow(9);
+        while ((run & ~0x7F) != 0) {
+            staging.put((byte) ((run & 0x7F) | 0x80));
+            run >>>= 7;
+        }
+        staging.put((byte) run);
+        staging.putInt(value);
+    }
+
+    private void grow(int length) {
+        if (staging.remaining() >= length) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(staging.capacity() * 2, staging.position() + length));
+        staging.flip();
+        larger.put(staging);
+        staging = larger;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a recording written by MonkeyRecorder. Any frame can be restored on demand: decoding starts at the nearest keyframe,
+ * and stepping forward from the last restored frame only decodes the frames in between.
+ */
+public class MonkeyRecording implements Closeable {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final long[] offsets;
+    private final long[] timestamps;
+    private final boolean[] keyframes;
+    private final int[] pixels;
+    private int decoded = -1;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * Opens a recording.
+     * @param filename The fully-qualified filename of the recording.
+     * @throws MonkeyException
+     */
+    public MonkeyRecording(String filename) throws MonkeyException {
+        try {
+            file = new RandomAccessFile(filename, "r");
+            channel = file.getChannel();
+            ByteBuffer header = read(0, MonkeyRecorder.HEADER_SIZE);
+            if (header.getInt() != MonkeyRecorder.MAGIC) {
+                throw new MonkeyInvalidArgumentException(filename + " is not a recording");
+            }
+            if (header.getInt() != MonkeyRecorder.VERSION) {
+                throw new MonkeyInvalidArgumentException(filename + " has an unsupported version");
+            }
+            width = header.getInt();
+            height = header.getInt();
+            tileSize = header.getInt();
+            header.getInt();
+            long indexOffset = header.getLong(MonkeyRecorder.HEADER_INDEX_OFFSET);
+            int frameCount = header.getInt(MonkeyRecorder.HEADER_FRAME_COUNT);
+            pixels = new int[width * height];
+            if (indexOffset != 0) {
+                offsets = new long[frameCount];
+                timestamps = new long[frameCount];
+                keyframes = new boolean[frameCount];
+                ByteBuffer index = read(indexOffset, frameCount * MonkeyRecorder.INDEX_ENTRY_SIZE);
+                for (int i = 0; i < frameCount; i++) {
+                    offsets[i] = index.getLong();
+                    timestamps[i] = index.getLong();
+                    keyframes[i] = index.get() == MonkeyRecorder.KEYFRAME;
+                }
+            } else {
+                List<long[]> entries = scan();
+                offsets = new long[entries.size()];
+                timestamps = new long[entries.size()];
+                keyframes = new boolean[entries.size()];
+                for (int i = 0; i < entries.size(); i++) {
+                    offsets[i] = entries.get(i)[0];
+                    timestamps[i] = entries.get(i)[1];
+                    keyframes[i] = entries.get(i)[2] == MonkeyRecorder.KEYFRAME;
+                }
+            }
+        } catch (Exception e) {
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Returns the number of frames in the recording.
+     * @return The number of frames.
+     */
+    public int getFrameCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the width of the frames.
+     * @return The width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the frames.
+     * @return The height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the capture time of a frame.
+     * @param frame The 0-based number of the frame.
+     * @return The capture time in milliseconds.
+     * @throws MonkeyException
+     */
+    public long getTimestamp(int frame) throws MonkeyException {
+        checkFrame(frame);
+        return timestamps[frame];
+    }
+
+    /**
+     * Restores a frame.
+     * @param frame The 0-based number of the frame.
+     * @return The frame as a MonkeyImage.
+     * @throws MonkeyException
+     */
+    public synchronized MonkeyImage getFrame(int frame) throws MonkeyException {
+        checkFrame(frame);
+        try {
+            int keyframe = frame;
+            while (!keyframes[keyframe]) {
+                keyframe--;
+            }
+            int start = (decoded >= keyframe && decoded <= frame) ? decoded + 1 : keyframe;
+            for (int i = start; i <= frame; i++) {
+                decode(i);
+                decoded = i;
+            }
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+            return new MonkeyImage(image);
+        } catch (Exception e) {
+            decoded = -1;
+            throw MonkeyException.wrap(e);
+        }
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void checkFrame(int frame) throws MonkeyException {
+        if (frame < 0 || frame >= offsets.length) {
+            throw new MonkeyInvalidArgumentException("Frame " + frame + " is not in the recording");
+        }
+    }
+
+    // Rebuilds the index of a recording that was not closed, stopping at the first unfinished or corrupt record.
+    // The file is usually longer than the records, because the recorder maps it in large segments.
+    private List<long[]> scan() throws IOException {
+        List<long[]> entries = new ArrayList<long[]>();
+        long size = channel.size();
+        long position = MonkeyRecorder.HEADER_SIZE;
+        while (position + MonkeyRecorder.RECORD_HEADER_SIZE <= size) {
+            ByteBuffer record = read(position, MonkeyRecorder.RECORD_HEADER_SIZE);
+            byte type = record.get();
+            long timestamp = record.getLong();
+            int length = record.getInt();
+            int checksum = record.getInt();
+            if ((type != MonkeyRecorder.KEYFRAME && type != MonkeyRecorder.DELTA)
+                    || (entries.isEmpty() && type != MonkeyRecorder.KEYFRAME)
+                    || length < 0 || position + MonkeyRecorder.RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = read(position + MonkeyRecorder.RECORD_HEADER_SIZE, length);
+            if (MonkeyRecorder.checksum(timestamp, length, payload.array(), payload.arrayOffset()) != checksum) {
+                break;
+            }
+            entries.add(new long[] {position, timestamp, type});
+            position += MonkeyRecorder.RECORD_HEADER_SIZE + length;
+        }
+        return entries;
+    }
+
+    private void decode(int frame) throws IOException {
+        ByteBuffer record = read(offsets[frame], MonkeyRecorder.RECORD_HEADER_SIZE);
+        record.position(9);
+        ByteBuffer payload = read(offsets[frame] + MonkeyRecorder.RECORD_HEADER_SIZE, record.getInt());
+        if (keyframes[frame]) {
+            Arrays.fill(pixels, 0);
+        }
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        byte[] bitmap = new byte[(tilesX * tilesY + 7) / 8];
+        payload.get(bitmap);
+        for (int ty = 0; ty < tilesY; ty++) {
+            int y0 = ty * tileSize;
+            int y1 = Math.min(y0 + tileSize, height);
+            for (int tx = 0; tx < tilesX; tx++) {
+                int tile = ty * tilesX + tx;
+                if ((bitmap[tile >> 3] & (1 << (tile & 7))) == 0) {
+                    continue;
+                }
+                int x0 = tx * tileSize;
+                int x1 = Math.min(x0 + tileSize, width);
+                // A first run of length 0 marks a tile that is stored raw
+                int run = readRun(payload);
+                boolean raw = run == 0;
+                int value = raw ? 0 : payload.getInt();
+                for (int y = y0; y < y1; y++) {
+                    int offset = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        if (raw) {
+                            pixels[offset + x] ^= payload.getInt();
+                            continue;
+                        }
+                        if (run == 0) {
+                            run = readRun(payload);
+                            value = payload.getInt();
+                        }
+                        pixels[offset + x] ^= value;
+                        run--;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int readRun(ByteBuffer payload) {
+        int run = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = payload.get();
+            run |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return run;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        ByteBuffer target = (ByteBuffer) buffer.duplicate().clear().limit(length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new EOFException("Recording ends unexpectedly");
+            }
+        }
+        target.flip();
+        return target;
+    }
+}
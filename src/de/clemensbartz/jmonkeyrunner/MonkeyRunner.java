@@ -31,6 +31,7 @@ import java.util.Map;
  */
 public class MonkeyRunner {
     private static Map<String, AdbBackend> backendMap = new HashMap<String, AdbBackend>();
+    private static volatile MonkeyInteraction interaction = new MonkeyHeadlessInteraction();
 
     protected static AdbBackend getAdbBackend(String adbPath) {
         if (backendMap.get(adbPath) != null) {
@@ -40,6 +41,26 @@ public class MonkeyRunner {
         return getAdbBackend(adbPath);
     }
 
+    /**
+     * Sets the provider that answers alert(), choice() and input(). The default is a MonkeyHeadlessInteraction without answers,
+     * so unattended scripts never block on a prompt.
+     * @param interaction The provider, e.g. a MonkeyHeadlessInteraction, MonkeyConsoleInteraction or MonkeySwingInteraction.
+     */
+    public static void setInteraction(MonkeyInteraction interaction) {
+        if (interaction == null) {
+            throw new IllegalArgumentException("Interaction must not be null");
+        }
+        MonkeyRunner.interaction = interaction;
+    }
+
+    /**
+     * Returns the provider that answers alert(), choice() and input().
+     * @return The provider.
+     */
+    public static MonkeyInteraction getInteraction() {
+        return interaction;
+    }
+
     /**
      * Displays an alert dialog to the process running the current program. The dialog is modal, so the program pauses until the user clicks the dialog's button.
      * @param message The message to display in the dialog.
@@ -47,7 +68,7 @@ public class MonkeyRunner {
      * @param okTitle The text displayed in the dialog button.
      */
     public static void alert(String message, String title, String okTitle) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        interaction.alert(message, title, okTitle);
     }
 
     /**
@@ -59,7 +80,7 @@ public class MonkeyRunner {
      *  If the user clicks the "Cancel" button, the method returns -1.
      */
     public static int choice(String message, Collection<String> choices, String title) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return interaction.choice(message, choices, title);
     }
 
     /**
@@ -85,7 +106,7 @@ public class MonkeyRunner {
      * @return
      */
     public static String input(String message, String initialValue, String title, String okTitle, String cancelTitle) {
-        throw new UnsupportedOperationException("Not yet implemented");
+        return interaction.input(message, initialValue, title, okTitle, cancelTitle);
     }
 
     /**
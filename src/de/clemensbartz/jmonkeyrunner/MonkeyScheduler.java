@@ -0,0 +1,598 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs jobs on a pool of devices.
+ * Every device has its own worker thread that takes the next job the device can serve: jobs with a higher priority come first,
+ * jobs of the same priority are shared fairly between their groups, and jobs of the same group run in submission order.
+ * A device whose job failed is probed; if the probe fails, the device is taken out of rotation until it answers again and the job is requeued once.
+ */
+public class MonkeyScheduler {
+    private static final String DEFAULT_GROUP = "default";
+    private static final String HEALTH_PROPERTY = "display.width";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<PendingJob<?>> queue = new ArrayList<PendingJob<?>>();
+    private final List<Slot> slots = new ArrayList<Slot>();
+    private final Map<String, Long> served = new HashMap<String, Long>();
+    private final long healthCheckInterval;
+    private long sequence = 0;
+    private boolean shutdown = false;
+    private long retiredNanos = 0;
+    private long finishedBusyNanos = 0;
+    private long completedJobs = 0;
+    private long failedJobs = 0;
+
+    /**
+     * Creates a scheduler that probes devices taken out of rotation every 10 seconds.
+     */
+    public MonkeyScheduler() {
+        this(10000);
+    }
+
+    /**
+     * Creates a scheduler.
+     * @param healthCheckInterval The number of milliseconds between probes of a device that was taken out of rotation.
+     */
+    public MonkeyScheduler(long healthCheckInterval) {
+        if (healthCheckInterval < 1) {
+            throw new IllegalArgumentException("Health check interval must be positive");
+        }
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    /**
+     * Adds a device to the pool and starts serving jobs on it.
+     * @param device The device, e.g. as returned by MonkeyRunner.waitForConnection().
+     */
+    public void addDevice(MonkeyDevice device) {
+        if (device == null) {
+            throw new IllegalArgumentException("Device must not be null");
+        }
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            for (Slot slot : slots) {
+                if (slot.device == device) {
+                    return;
+                }
+            }
+            Slot slot = new Slot(device);
+            slots.add(slot);
+            Thread worker = new Thread(new Worker(slot), "MonkeyScheduler-" + slots.size());
+            worker.setDaemon(true);
+            worker.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a device from the pool. A job that is currently running on the device is finished first.
+     * @param device The device.
+     */
+    public void removeDevice(MonkeyDevice device) {
+        lock.lock();
+        try {
+            for (Iterator<Slot> iterator = slots.iterator(); iterator.hasNext();) {
+                Slot slot = iterator.next();
+                if (slot.device == device) {
+                    iterator.remove();
+                    retire(slot);
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a job with priority 0 in the default group that can run on any device.
+     * @param job The job.
+     * @return A future holding the result of the job.
+     */
+    public <T> Future<T> submit(MonkeyJob<T> job) {
+        return submit(job, 0, DEFAULT_GROUP, null);
+    }
+
+    /**
+     * Queues a job.
+     * @param job The job.
+     * @param priority Jobs with a higher priority are run first.
+     * @param group Jobs of the same priority are shared fairly between groups, e.g. teams or test suites.
+     * @param requirements Device properties the job needs, as used by MonkeyDevice.getProperty(). A value is either matched exactly or,
+     *                     if prefixed with "&gt;=" or "&lt;=", compared numerically, e.g. "build.version.sdk" -&gt; "&gt;=19". May be null.
+     * @return A future holding the result of the job. Cancelling it with cancel(true) interrupts the job if it is running.
+     */
+    public <T> Future<T> submit(MonkeyJob<T> job, int priority, String group, Map<String, String> requirements) {
+        if (job == null) {
+            throw new IllegalArgumentException("Job must not be null");
+        }
+        Map<String, String> copy = (requirements == null)
+                ? Collections.<String, String>emptyMap()
+                : new HashMap<String, String>(requirements);
+        String key = (group == null) ? DEFAULT_GROUP : group;
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            // A group that was idle catches up with the least served waiting group, so it can neither starve others nor be starved
+            long floor = Long.MAX_VALUE;
+            for (PendingJob<?> waiting : queue) {
+                floor = Math.min(floor, served.get(waiting.group));
+            }
+            if (floor == Long.MAX_VALUE) {
+                floor = served.isEmpty() ? 0L : Collections.max(served.values());
+            }
+            Long count = served.get(key);
+            if (count == null || count < floor) {
+                served.put(key, floor);
+            }
+            PendingJob<T> pending = new PendingJob<T>(job, priority, key, copy, sequence++);
+            queue.add(pending);
+            changed.signalAll();
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the scheduler. Queued jobs are cancelled, running jobs are finished.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            for (PendingJob<?> pending : queue) {
+                pending.cancel(false);
+            }
+            queue.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of jobs waiting for a device.
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            int depth = 0;
+            for (PendingJob<?> pending : queue) {
+                if (!pending.isCancelled()) {
+                    depth++;
+                }
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of devices in the pool, including devices out of rotation.
+     * @return The number of devices.
+     */
+    public int getDeviceCount() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of devices that are currently running a job.
+     * @return The number of busy devices.
+     */
+    public int getBusyDeviceCount() {
+        lock.lock();
+        try {
+            int busy = 0;
+            for (Slot slot : slots) {
+                if (slot.busySince != 0) {
+                    busy++;
+                }
+            }
+            return busy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of devices that failed their health check and are out of rotation.
+     * @return The number of unhealthy devices.
+     */
+    public int getUnhealthyDeviceCount() {
+        lock.lock();
+        try {
+            int unhealthy = 0;
+            for (Slot slot : slots) {
+                if (!slot.healthy) {
+                    unhealthy++;
+                }
+            }
+            return unhealthy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the share of device time spent running jobs since the devices were added.
+     * @return A value from 0.0 to 1.0.
+     */
+    public double getUtilisation() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long total = retiredNanos;
+            long busy = finishedBusyNanos;
+            for (Slot slot : slots) {
+                total += now - slot.added;
+                if (slot.busySince != 0) {
+                    busy += now - slot.busySince;
+                }
+            }
+            return total == 0 ? 0.0 : Math.min(1.0, (double) busy / total);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of jobs that returned a result.
+     * @return The number of completed jobs.
+     */
+    public long getCompletedJobCount() {
+        lock.lock();
+        try {
+            return completedJobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of jobs that threw an exception.
+     * @return The number of failed jobs.
+     */
+    public long getFailedJobCount() {
+        lock.lock();
+        try {
+            return failedJobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held. Returns null if no job matches or if properties of the device have to be looked up first.
+    private PendingJob<?> next(Slot slot) {
+        long now = System.nanoTime();
+        long retryNanos = TimeUnit.MILLISECONDS.toNanos(healthCheckInterval);
+        PendingJob<?> best = null;
+        for (Iterator<PendingJob<?>> iterator = queue.iterator(); iterator.hasNext();) {
+            PendingJob<?> pending = iterator.next();
+            if (pending.isCancelled()) {
+                iterator.remove();
+                continue;
+            }
+            if (best != null && pending.priority < best.priority) {
+                continue;
+            }
+            if (!slot.matches(pending.requirements, now, retryNanos)) {
+                continue;
+            }
+            if (best == null || pending.priority > best.priority || precedes(pending, best)) {
+                best = pending;
+            }
+        }
+        if (!slot.lookups.isEmpty()) {
+            // A job that is not yet known to match may have precedence over the best match
+            return null;
+        }
+        if (best != null) {
+            queue.remove(best);
+            served.put(best.group, served.get(best.group) + 1);
+        }
+        return best;
+    }
+
+    private boolean precedes(PendingJob<?> a, PendingJob<?> b) {
+        long servedA = served.get(a.group);
+        long servedB = served.get(b.group);
+        if (servedA != servedB) {
+            return servedA < servedB;
+        }
+        return a.sequence < b.sequence;
+    }
+
+    // Must be called with the lock held
+    private void retire(Slot slot) {
+        slot.removed = true;
+        retiredNanos += System.nanoTime() - slot.added;
+    }
+
+    private static boolean isHealthy(MonkeyDevice device) {
+        try {
+            return device.getProperty(HEALTH_PROPERTY) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final Slot slot;
+
+        private Worker(Slot slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PendingJob<?> pending = null;
+                    Set<String> lookups = null;
+                    lock.lock();
+                    try {
+                        while (!shutdown && !slot.removed && (pending = next(slot)) == null) {
+                            if (!slot.lookups.isEmpty()) {
+                                lookups = new HashSet<String>(slot.lookups);
+                                slot.lookups.clear();
+                                break;
+                            }
+                            if (slot.unresolved.isEmpty()) {
+                                changed.await();
+                            } else {
+                                // Look up the missing properties again once they are due
+                                changed.await(healthCheckInterval, TimeUnit.MILLISECONDS);
+                            }
+                        }
+                        if (shutdown || slot.removed) {
+                            return;
+                        }
+                        if (pending != null) {
+                            slot.busySince = System.nanoTime();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (pending == null) {
+                        lookUp(lookups);
+                        continue;
+                    }
+                    boolean succeeded = pending.execute(slot.device);
+                    Throwable failure = pending.getFailure();
+                    // A cancelled job, an invalid argument or an error is the job's fault, there is no need to probe the device
+                    boolean healthy = succeeded
+                            || pending.isCancelled()
+                            || failure instanceof MonkeyInvalidArgumentException
+                            || !(failure instanceof Exception)
+                            || isHealthy(slot.device);
+                    lock.lock();
+                    try {
+                        finishedBusyNanos += System.nanoTime() - slot.busySince;
+                        slot.busySince = 0;
+                        if (pending.isCancelled()) {
+                            // Neither completed nor failed, the result was not wanted
+                        } else if (succeeded) {
+                            completedJobs++;
+                            pending.succeed();
+                        } else if (healthy || pending.attempts > 1 || shutdown) {
+                            failedJobs++;
+                            pending.fail();
+                        } else {
+                            // The device failed, not the job: give it another device
+                            queue.add(pending);
+                            changed.signalAll();
+                        }
+                        slot.healthy = healthy;
+                    } finally {
+                        lock.unlock();
+                    }
+                    while (!healthy) {
+                        TimeUnit.MILLISECONDS.sleep(healthCheckInterval);
+                        healthy = isHealthy(slot.device);
+                        lock.lock();
+                        try {
+                            if (shutdown || slot.removed) {
+                                return;
+                            }
+                            slot.healthy = healthy;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Property lookups are round trips to the device, so they run without holding the lock
+        private void lookUp(Set<String> keys) {
+            for (String key : keys) {
+                String value = null;
+                try {
+                    value = slot.device.getProperty(key);
+                } catch (Exception e) {
+                    // Treated like a missing property and looked up again later
+                }
+                lock.lock();
+                try {
+                    if (value != null) {
+                        slot.properties.put(key, value);
+                        slot.unresolved.remove(key);
+                    } else {
+                        slot.unresolved.put(key, System.nanoTime());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Slot {
+        private final MonkeyDevice device;
+        private final Map<String, String> properties = new HashMap<String, String>();
+        private final Map<String, Long> unresolved = new HashMap<String, Long>();
+        private final Set<String> lookups = new HashSet<String>();
+        private final long added = System.nanoTime();
+        private long busySince = 0;
+        private boolean healthy = true;
+        private boolean removed = false;
+
+        private Slot(MonkeyDevice device) {
+            this.device = device;
+        }
+
+        // Properties are cached, the requirements are meant for static properties like sdk level or resolution.
+        // A property that is not cached yet is queued for lookup, one that could not be read counts as missing until it is due again.
+        private boolean matches(Map<String, String> requirements, long now, long retryNanos) {
+            for (Map.Entry<String, String> requirement : requirements.entrySet()) {
+                String key = requirement.getKey();
+                String actual = properties.get(key);
+                if (actual == null) {
+                    Long failedAt = unresolved.get(key);
+                    if (failedAt == null || now - failedAt >= retryNanos) {
+                        lookups.add(key);
+                        return false;
+                    }
+                }
+                if (!matches(actual, requirement.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean matches(String actual, String expected) {
+            if (actual == null || expected == null) {
+                return actual == null && expected == null;
+            }
+            try {
+                if (expected.startsWith(">=")) {
+                    return Double.parseDouble(actual.trim()) >= Double.parseDouble(expected.substring(2).trim());
+                }
+                if (expected.startsWith("<=")) {
+                    return Double.parseDouble(actual.trim()) <= Double.parseDouble(expected.substring(2).trim());
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return actual.equals(expected);
+        }
+    }
+
+    private static final class PendingJob<T> extends FutureTask<T> {
+        private final Attempt<T> attempt;
+        private final int priority;
+        private final String group;
+        private final Map<String, String> requirements;
+        private final long sequence;
+        private int attempts = 0;
+
+        private PendingJob(MonkeyJob<T> job, int priority, String group, Map<String, String> requirements, long sequence) {
+            this(new Attempt<T>(job), priority, group, requirements, sequence);
+        }
+
+        private PendingJob(Attempt<T> attempt, int priority, String group, Map<String, String> requirements, long sequence) {
+            super(attempt);
+            this.attempt = attempt;
+            this.priority = priority;
+            this.group = group;
+            this.requirements = requirements;
+            this.sequence = sequence;
+        }
+
+        // Runs the job without completing the future, so a job whose device failed can be requeued.
+        // runAndReset() makes the worker the runner of the future, so cancel(true) interrupts the job.
+        private boolean execute(MonkeyDevice device) {
+            attempts++;
+            attempt.device = device;
+            attempt.result = null;
+            attempt.failure = null;
+            boolean ran = runAndReset();
+            // An interrupt from cancel(true) must not hit the next job
+            Thread.interrupted();
+            return ran && attempt.failure == null;
+        }
+
+        private Throwable getFailure() {
+            return attempt.failure;
+        }
+
+        private void succeed() {
+            set(attempt.result);
+        }
+
+        private void fail() {
+            setException(attempt.failure);
+        }
+    }
+
+    private static final class Attempt<T> implements Callable<T> {
+        private final MonkeyJob<T> job;
+        private MonkeyDevice device;
+        private T result;
+        private Throwable failure;
+
+        private Attempt(MonkeyJob<T> job) {
+            this.job = job;
+        }
+
+        @Override
+        public T call() {
+            try {
+                result = job.run(device);
+            } catch (Throwable e) {
+                // Errors like a failed assertion in a job must not take the worker down with them
+                failure = e;
+            }
+            return null;
+        }
+    }
+}
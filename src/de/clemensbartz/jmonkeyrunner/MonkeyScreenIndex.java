@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.util.Arrays;
+
+/**
+ * Maps snapshots to the nearest known screen state by comparing grid hashes of the images.
+ * Lookups only hash the snapshot once and compare it against the stored fingerprints, instead of comparing every reference image pixel by pixel.
+ * Lookups are lock-free and may run concurrently with each other and with updates.
+ */
+public class MonkeyScreenIndex {
+    private final int columns;
+    private final int rows;
+    private volatile Entry[] entries = new Entry[0];
+
+    /**
+     * Creates an index that fingerprints whole images with a single hash.
+     */
+    public MonkeyScreenIndex() {
+        this(1, 1);
+    }
+
+    /**
+     * Creates an index that fingerprints images with a grid of hashes. More cells distinguish screens that only differ in small areas.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     */
+    public MonkeyScreenIndex(int columns, int rows) {
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException("Grid must have at least one cell");
+        }
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * Adds or replaces a known screen state.
+     * @param state The name of the state.
+     * @param reference A reference image of the state.
+     * @throws MonkeyException
+     */
+    public void put(String state, MonkeyImage reference) throws MonkeyException {
+        put(state, reference.getGridHashes(columns, rows));
+    }
+
+    /**
+     * Adds or replaces a known screen state.
+     * @param state The name of the state.
+     * @param reference A grayscale reference image of the state, at any scale.
+     */
+    public void put(String state, MonkeyLumaImage reference) {
+        put(state, reference.getGridHashes(columns, rows));
+    }
+
+    /**
+     * Adds or replaces a known screen state.
+     * @param state The name of the state.
+     * @param fingerprint The grid hashes of the state as returned by MonkeyImage.getGridHashes() with this index' grid size.
+     */
+    public synchronized void put(String state, long[] fingerprint) {
+        if (state == null) {
+            throw new IllegalArgumentException("State must not be null");
+        }
+        if (fingerprint.length != columns * rows) {
+            throw new IllegalArgumentException("Fingerprint must have " + (columns * rows) + " hashes");
+        }
+        Entry[] current = entries;
+        int index = indexOf(current, state);
+        Entry[] updated;
+        if (index < 0) {
+            index = current.length;
+            updated = Arrays.copyOf(current, index + 1);
+        } else {
+            updated = current.clone();
+        }
+        updated[index] = new Entry(state, fingerprint.clone());
+        entries = updated;
+    }
+
+    /**
+     * Removes a known screen state.
+     * @param state The name of the state.
+     */
+    public synchronized void remove(String state) {
+        Entry[] current = entries;
+        int index = indexOf(current, state);
+        if (index < 0) {
+            return;
+        }
+        Entry[] updated = new Entry[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, updated.length - index);
+        entries = updated;
+    }
+
+    /**
+     * Returns the number of known screen states.
+     * @return The number of states.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Returns the known screen state that is nearest to a snapshot.
+     * @param snapshot The snapshot to look up.
+     * @param maxDistance The maximum summed hamming distance over all grid cells for a state to match.
+     * @return The name of the nearest state or null if no state is within maxDistance.
+     * @throws MonkeyException
+     */
+    public String nearest(MonkeyImage snapshot, int maxDistance) throws MonkeyException {
+        return nearest(snapshot.getGridHashes(columns, rows), maxDistance);
+    }
+
+    /**
+     * Returns the known screen state that is nearest to a grayscale snapshot, e.g. from MonkeyDevice.takeLumaSnapshot().
+     * @param snapshot The snapshot to look up, at any scale.
+     * @param maxDistance The maximum summed hamming distance over all grid cells for a state to match.
+     * @return The name of the nearest state or null if no state is within maxDistance.
+     */
+    public String nearest(MonkeyLumaImage snapshot, int maxDistance) {
+        return nearest(snapshot.getGridHashes(columns, rows), maxDistance);
+    }
+
+    /**
+     * Returns the known screen state that is nearest to a snapshot. The snapshot caches its hashes, so repeated lookups of the same snapshot are free.
+     * @param snapshot The snapshot to look up.
+     * @param maxDistance The maximum summed hamming distance over all grid cells for a state to match.
+     * @return The name of the nearest state or null if no state is within maxDistance.
+     */
+    public String nearest(MonkeySnapshot snapshot, int maxDistance) {
+        return nearest(snapshot.getGridHashes(columns, rows), maxDistance);
+    }
+
+    /**
+     * Returns the known screen state that is nearest to a fingerprint.
+     * @param fingerprint The grid hashes to look up.
+     * @param maxDistance The maximum summed hamming distance over all grid cells for a state to match.
+     * @return The name of the nearest state or null if no state is within maxDistance.
+     */
+    public String nearest(long[] fingerprint, int maxDistance) {
+        if (fingerprint.length != columns * rows) {
+            throw new IllegalArgumentException("Fingerprint must have " + (columns * rows) + " hashes");
+        }
+        Entry[] current = entries;
+        String nearest = null;
+        int nearestDistance = maxDistance;
+        for (Entry entry : current) {
+            int distance = MonkeyImageHash.distance(fingerprint, entry.fingerprint);
+            if (distance < nearestDistance || (distance == nearestDistance && nearest == null)) {
+                nearest = entry.state;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the distance between a snapshot and a known screen state.
+     * @param state The name of the state.
+     * @param snapshot The snapshot.
+     * @return The summed hamming distance over all grid cells or -1 if the state is unknown.
+     * @throws MonkeyException
+     */
+    public int distance(String state, MonkeyImage snapshot) throws MonkeyException {
+        Entry[] current = entries;
+        int index = indexOf(current, state);
+        if (index < 0) {
+            return -1;
+        }
+        return MonkeyImageHash.distance(snapshot.getGridHashes(columns, rows), current[index].fingerprint);
+    }
+
+    private static int indexOf(Entry[] entries, String state) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].state.equals(state)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Entry {
+        private final String state;
+        private final long[] fingerprint;
+
+        private Entry(String state, long[] fingerprint) {
+            this.state = state;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An immutable copy of a screenshot that can be shared between threads without further copying.
+ * The pixels are copied once when the snapshot is created and can only be read afterwards.
+ * Derived data such as the luma planes, the downscaled pyramid and the hashes is computed lazily and cached,
+ * and is safe to request from several threads at the same time.
+ * Obtain one from MonkeyImage.getSnapshot().
+ */
+public final class MonkeySnapshot {
+    private static final int LEVELS = 4;
+    private static final DirectColorModel ARGB = new DirectColorModel(32, 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000);
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final BufferedImage view;
+    // One lock per level, so different levels are computed concurrently and only requests for the same level wait
+    private final AtomicReferenceArray<MonkeyLumaImage> lumaLevels = new AtomicReferenceArray<MonkeyLumaImage>(LEVELS);
+    private final AtomicReferenceArray<MonkeySnapshot> scaledLevels = new AtomicReferenceArray<MonkeySnapshot>(LEVELS);
+    private final Object[] lumaLocks = newLocks();
+    private final Object[] scaledLocks = newLocks();
+    private final ConcurrentMap<Long, long[]> gridHashes = new ConcurrentHashMap<Long, long[]>();
+    private volatile Long hash;
+
+    // Takes ownership of pixels, callers must not keep a reference
+    MonkeySnapshot(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        // Read-only view for the BufferedImage based helpers, never handed out
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height, width,
+                ARGB.getMasks(), null);
+        this.view = new BufferedImage(ARGB, raster, false, null);
+    }
+
+    static MonkeySnapshot of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = new int[width * height];
+        image.getRGB(0, 0, width, height, pixels, 0, width);
+        return new MonkeySnapshot(width, height, pixels);
+    }
+
+    /**
+     * Returns the width of the snapshot.
+     * @return The width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the snapshot.
+     * @return The height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the single pixel at the location (x,y).
+     * @param x The horizontal position of the pixel.
+     * @param y The vertical position of the pixel.
+     * @return The a,r,g, and b values of the pixel as 8-bit values combined into a 32-bit integer, with a as the leftmost 8 bits.
+     */
+    public int getPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IllegalArgumentException("Pixel (" + x + ", " + y + ") is outside of the snapshot");
+        }
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Returns read-only access to all pixels in row-major order, without copying them.
+     * @return A read-only buffer of ARGB pixels. Each caller gets its own buffer position.
+     */
+    public IntBuffer getPixels() {
+        return IntBuffer.wrap(pixels).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a mutable copy of the snapshot.
+     * @return A new BufferedImage that the caller may change freely.
+     */
+    public BufferedImage getBufferedImage() {
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        copy.setRGB(0, 0, width, height, pixels, 0, width);
+        return copy;
+    }
+
+    /**
+     * Returns a mutable copy of the snapshot as a MonkeyImage, e.g. to write it to a file.
+     * @return A new MonkeyImage.
+     */
+    public MonkeyImage getImage() {
+        return new MonkeyImage(getBufferedImage());
+    }
+
+    /**
+     * Returns the snapshot with a reduced resolution. Every factor x factor block of pixels is averaged into one pixel.
+     * @param factor The reduction factor: 1, 2, 4 or 8.
+     * @return The downscaled snapshot, computed once and shared afterwards.
+     */
+    public MonkeySnapshot getScaled(int factor) {
+        int level = levelOf(factor);
+        if (level == 0) {
+            return this;
+        }
+        MonkeySnapshot scaled = scaledLevels.get(level);
+        if (scaled != null) {
+            return scaled;
+        }
+        // Build on the next finer level of the pyramid instead of scanning the full resolution again.
+        // It is obtained before locking this level, so no lock is held while a finer level is built.
+        MonkeySnapshot finer = getScaled(factor / 2);
+        synchronized (scaledLocks[level]) {
+            scaled = scaledLevels.get(level);
+            if (scaled == null) {
+                BufferedImage image = MonkeyImage.downscale(finer.view, 2);
+                int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                scaled = new MonkeySnapshot(image.getWidth(), image.getHeight(), data);
+                scaledLevels.set(level, scaled);
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns the snapshot as 8 bit grayscale in full resolution.
+     * @return The luma image, computed once and shared afterwards.
+     */
+    public MonkeyLumaImage getLuma() {
+        return getLuma(1);
+    }
+
+    /**
+     * Returns the snapshot as 8 bit grayscale with a reduced resolution.
+     * @param factor The reduction factor: 1, 2, 4 or 8.
+     * @return The luma image, computed once and shared afterwards.
+     */
+    public MonkeyLumaImage getLuma(int factor) {
+        int level = levelOf(factor);
+        MonkeyLumaImage luma = lumaLevels.get(level);
+        if (luma != null) {
+            return luma;
+        }
+        synchronized (lumaLocks[level]) {
+            luma = lumaLevels.get(level);
+            if (luma == null) {
+                luma = MonkeyLumaImage.from(view, factor);
+                lumaLevels.set(level, luma);
+            }
+        }
+        return luma;
+    }
+
+    /**
+     * Returns a perceptual hash of the whole snapshot.
+     * @return A 64 bit perceptual hash, computed lazily and cached.
+     */
+    public long getHash() {
+        Long value = hash;
+        if (value == null) {
+            value = MonkeyImageHash.hash(view, 0, 0, width, height);
+            hash = value;
+        }
+        return value;
+    }
+
+    /**
+     * Splits the snapshot into a grid of equally sized cells and returns a perceptual hash for each cell.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     * @return columns * rows hashes in row-major order, computed lazily and cached per grid size.
+     */
+    public long[] getGridHashes(int columns, int rows) {
+        Long key = ((long) columns << 32) | (rows & 0xFFFFFFFFL);
+        long[] hashes = gridHashes.get(key);
+        if (hashes == null) {
+            hashes = MonkeyImageHash.gridHashes(view, columns, rows);
+            long[] existing = gridHashes.putIfAbsent(key, hashes);
+            if (existing != null) {
+                hashes = existing;
+            }
+        }
+        return hashes.clone();
+    }
+
+    /**
+     * Compares this snapshot to another one pixel by pixel.
+     * @param other Another MonkeySnapshot to compare to this one.
+     * @param percent A float in the range 0.0 to 1.0, inclusive, indicating the percentage of pixels that need to be the same.
+     * @return Boolean true if the snapshots match, or boolean false otherwise.
+     */
+    public boolean sameAs(MonkeySnapshot other, double percent) {
+        if (other.width != width || other.height != height) {
+            return false;
+        }
+        int[] otherPixels = other.pixels;
+        int numDiffPixels = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != otherPixels[i]) {
+                numDiffPixels++;
+            }
+        }
+        double diffPercent = numDiffPixels / (double) pixels.length;
+        return percent <= 1.0 - diffPercent;
+    }
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[LEVELS];
+        for (int i = 0; i < LEVELS; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private static int levelOf(int factor) {
+        switch (factor) {
+            case 1:
+                return 0;
+            case 2:
+                return 1;
+            case 4:
+                return 2;
+            case 8:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Factor must be 1, 2, 4 or 8, but was " + factor);
+        }
+    }
+}
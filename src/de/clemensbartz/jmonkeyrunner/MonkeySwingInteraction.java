@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Answers prompts with Swing dialogs. Every prompt gets its own dialog that only blocks the calling thread,
+ * so prompts from several devices can be open at the same time.
+ */
+public class MonkeySwingInteraction implements MonkeyInteraction {
+
+    /**
+     * Creates an interaction.
+     * @throws HeadlessException If no display is available.
+     */
+    public MonkeySwingInteraction() {
+        if (GraphicsEnvironment.isHeadless()) {
+            throw new HeadlessException();
+        }
+    }
+
+    @Override
+    public void alert(String message, String title, String okTitle) {
+        JOptionPane pane = new JOptionPane(message, JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION,
+                null, new Object[] {okTitle}, okTitle);
+        show(pane, title);
+    }
+
+    @Override
+    public int choice(String message, Collection<String> choices, String title) {
+        Object[] values = choices.toArray();
+        JOptionPane pane = new JOptionPane(message, JOptionPane.QUESTION_MESSAGE, JOptionPane.OK_CANCEL_OPTION);
+        pane.setWantsInput(true);
+        pane.setSelectionValues(values);
+        pane.setInitialSelectionValue(values.length > 0 ? values[0] : null);
+        if (!show(pane, title) || !Integer.valueOf(JOptionPane.OK_OPTION).equals(pane.getValue())) {
+            return -1;
+        }
+        Object selected = pane.getInputValue();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(selected)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String input(String message, String initialValue, String title, String okTitle, String cancelTitle) {
+        JOptionPane pane = new JOptionPane(message, JOptionPane.QUESTION_MESSAGE, JOptionPane.OK_CANCEL_OPTION,
+                null, new Object[] {okTitle, cancelTitle}, okTitle);
+        pane.setWantsInput(true);
+        pane.setInitialSelectionValue(initialValue);
+        if (!show(pane, title) || !okTitle.equals(pane.getValue())) {
+            return "";
+        }
+        Object value = pane.getInputValue();
+        return (value == null || value == JOptionPane.UNINITIALIZED_VALUE) ? "" : value.toString();
+    }
+
+    // Shows a non-modal dialog and waits until it is closed, returns false if the calling thread was interrupted
+    private boolean show(final JOptionPane pane, final String title) {
+        final CountDownLatch closed = new CountDownLatch(1);
+        final JDialog[] dialog = new JDialog[1];
+        pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                closed.countDown();
+            }
+        });
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                dialog[0] = pane.createDialog(null, title);
+                dialog[0].setModal(false);
+                dialog[0].setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+                dialog[0].setVisible(true);
+            }
+        });
+        try {
+            closed.await();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (dialog[0] != null) {
+                        dialog[0].dispose();
+                    }
+                }
+            });
+        }
+    }
+}
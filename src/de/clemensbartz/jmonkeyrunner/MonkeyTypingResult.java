@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Clemens Bartz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.clemensbartz.jmonkeyrunner;
+
+/**
+ * Statistics of a MonkeyDevice.typeFast() call.
+ */
+public class MonkeyTypingResult {
+    private final int characters;
+    private final int shellCharacters;
+    private final int chunks;
+    private final int failedChunks;
+    private final int unverifiedChunks;
+    private final long elapsedNanos;
+
+    protected MonkeyTypingResult(int characters, int shellCharacters, int chunks, int failedChunks, int unverifiedChunks, long elapsedNanos) {
+        this.characters = characters;
+        this.shellCharacters = shellCharacters;
+        this.chunks = chunks;
+        this.failedChunks = failedChunks;
+        this.unverifiedChunks = unverifiedChunks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of characters in the message.
+     * @return The number of characters.
+     */
+    public int getCharacters() {
+        return characters;
+    }
+
+    /**
+     * Returns the number of characters that were sent through the shell input command.
+     * @return The number of characters sent on the fast path.
+     */
+    public int getShellCharacters() {
+        return shellCharacters;
+    }
+
+    /**
+     * Returns the number of characters that were sent as key events because the shell input command cannot carry them.
+     * @return The number of characters sent on the slow path.
+     */
+    public int getFallbackCharacters() {
+        return characters - shellCharacters;
+    }
+
+    /**
+     * Returns the number of shell input commands that were run.
+     * @return The number of chunks.
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns the number of shell input commands that reported an error. Their text was sent again as key events.
+     * @return The number of failed chunks.
+     */
+    public int getFailedChunks() {
+        return failedChunks;
+    }
+
+    /**
+     * Returns the number of shell input commands that printed unexpected output without reporting an error.
+     * Their text was not sent again, so it may or may not have been typed.
+     * @return The number of unverified chunks.
+     */
+    public int getUnverifiedChunks() {
+        return unverifiedChunks;
+    }
+
+    /**
+     * Returns whether every chunk is known to have been typed, either by a shell input command that printed no unexpected output
+     * or, after an error, as key events.
+     * @return Boolean true if no chunk is unverified.
+     */
+    public boolean isVerified() {
+        return unverifiedChunks == 0;
+    }
+
+    /**
+     * Returns the time it took to send the message.
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the throughput of the call.
+     * @return The number of characters sent per second.
+     */
+    public double getCharactersPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : characters * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return characters + " characters (" + shellCharacters + " in " + chunks + " shell chunks, " + failedChunks + " failed, "
+                + unverifiedChunks + " unverified) at "
+                + Math.round(getCharactersPerSecond()) + " characters/s";
+    }
+}